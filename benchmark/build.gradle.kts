@@ -0,0 +1,78 @@
+plugins {
+    java
+    // https://github.com/melix/jmh-gradle-plugin, 0.6.x works with Gradle 7
+    id("me.champeau.jmh") version "0.6.6"
+}
+
+// not released, only used to measure the performance of conversions
+version = "0.0.1-SNAPSHOT"
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+dependencies {
+    implementation(project(":lphybeast"))
+    // StructuredCoalescentToMascot
+    implementation(project(":mascot"))
+    implementation(fileTree("../mascot/lib"))
+
+    // tests
+    testImplementation("junit:junit:4.13.2")
+}
+
+// ./gradlew :benchmark:jmh -PjmhIncludes=ConverterBenchmark
+jmh {
+    jmhVersion.set("1.35")
+    if (project.hasProperty("jmhIncludes"))
+        includes.set(listOf(project.property("jmhIncludes").toString()))
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    // large models
+    jvmArgs.set(listOf("-Xms1G", "-Xmx4G"))
+    // human readable and machine readable results to compare between releases
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+}
+
+// the scaling tests take long and require a large heap, so they are only run by scalingTest
+tasks.test {
+    useJUnit()
+    exclude("**/*ScalingTest*")
+}
+
+// ./gradlew :benchmark:scalingTest -PmaxTaxa=10000
+tasks.register("scalingTest", Test::class.java) {
+    description = "Convert synthetic models up to 50,000 taxa and check the growth of time and peak heap."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnit()
+    include("**/*ScalingTest*")
+    minHeapSize = "1G"
+    maxHeapSize = "16G"
+    systemProperty("scaling.maxTaxa", project.findProperty("maxTaxa") ?: "50000")
+    project.findProperty("maxExponent")?.let { systemProperty("scaling.maxExponent", it) }
+    project.findProperty("slack")?.let { systemProperty("scaling.slack", it) }
+    testLogging.showStandardStreams = true
+    // always measure
+    outputs.upToDateWhen { false }
+}
+
+// ./gradlew :benchmark:perfGate, add -PupdateBaseline to record the baseline after an intended change
+tasks.register("perfGate", JavaExec::class.java) {
+    description = "Convert a fixed corpus and fail if any metric is worse than the baseline beyond the tolerance."
+    group = "verification"
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("lphybeast.benchmark.RegressionGate")
+    minHeapSize = "1G"
+    maxHeapSize = "4G"
+    val gateArgs = mutableListOf("--baseline", "$projectDir/baseline.json")
+    if (project.hasProperty("updateBaseline"))
+        gateArgs.add("--update")
+    project.findProperty("tolerance")?.let { gateArgs.addAll(listOf("--tolerance", it.toString())) }
+    project.findProperty("timeTolerance")?.let { gateArgs.addAll(listOf("--time-tolerance", it.toString())) }
+    setArgs(gateArgs)
+}
@@ -0,0 +1,104 @@
+package lphybeast.benchmark;
+
+import beast.core.MCMC;
+import lphy.core.LPhyParser;
+import lphybeast.BEASTContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phases of a conversion, where the input of each phase is prepared
+ * before every invocation, so that only the phase itself is measured.
+ * Note {@link BEASTContext#createMCMC(long, String, int)} includes
+ * {@link BEASTContext#createBEASTObjects()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BEASTContextBenchmark {
+
+    static final String FILE_STEM = "coal";
+
+    @State(Scope.Benchmark)
+    public static class Model {
+        @Param({"10", "100", "1000"})
+        int taxa;
+        @Param({"200", "2000"})
+        int L;
+        @Param({"1", "4"})
+        int partitions;
+        @Param({"1", "8"})
+        int dim;
+
+        String script;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            script = SyntheticModels.coalescent(taxa, L, partitions, dim);
+        }
+    }
+
+    // the parsed script before sampling
+    @State(Scope.Thread)
+    public static class Parsed {
+        LPhyParser parser;
+
+        @Setup(Level.Invocation)
+        public void setUp(Model model) throws IOException {
+            parser = Conversions.parse(model.script);
+        }
+    }
+
+    // the context before any conversion
+    @State(Scope.Thread)
+    public static class Context {
+        BEASTContext context;
+
+        @Setup(Level.Invocation)
+        public void setUp(Model model) throws IOException {
+            context = Conversions.createContext(model.script);
+        }
+    }
+
+    // the context after the MCMC is created
+    @State(Scope.Thread)
+    public static class Converted {
+        BEASTContext context;
+        MCMC mcmc;
+
+        @Setup(Level.Invocation)
+        public void setUp(Model model) throws IOException {
+            context = Conversions.createContext(model.script);
+            mcmc = context.createMCMC(-1, FILE_STEM, 0);
+        }
+    }
+
+    @Benchmark
+    public LPhyParser parse(Model model) throws IOException {
+        return Conversions.parse(model.script);
+    }
+
+    @Benchmark
+    public LPhyParser sample(Parsed parsed) {
+        Conversions.sample(parsed.parser);
+        return parsed.parser;
+    }
+
+    @Benchmark
+    public BEASTContext createBEASTObjects(Context context) {
+        context.context.createBEASTObjects();
+        return context.context;
+    }
+
+    @Benchmark
+    public MCMC createMCMC(Context context) {
+        return context.context.createMCMC(-1, FILE_STEM, 0);
+    }
+
+    @Benchmark
+    public String toXML(Converted converted) {
+        return converted.context.toXML(converted.mcmc);
+    }
+
+}
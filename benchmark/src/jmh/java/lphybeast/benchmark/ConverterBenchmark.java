@@ -0,0 +1,119 @@
+package lphybeast.benchmark;
+
+import beast.core.BEASTInterface;
+import lphy.core.LPhyParser;
+import lphy.core.distributions.IID;
+import lphy.evolution.alignment.SimpleAlignment;
+import lphy.evolution.coalescent.StructuredCoalescent;
+import lphy.evolution.tree.TimeTree;
+import lphy.graphicalModel.Value;
+import lphybeast.BEASTContext;
+import lphybeast.tobeast.generators.IIDToBEAST;
+import lphybeast.tobeast.values.AlignmentToBEAST;
+import lphybeast.tobeast.values.TimeTreeToBEAST;
+import mascot.lphybeast.tobeast.generators.StructuredCoalescentToMascot;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot converters called on a context where the model is already converted,
+ * so that the BEAST objects of their inputs are available as in {@link BEASTContext#createBEASTObjects()}.
+ * The model is sampled once per trial, but the context is converted again before every invocation,
+ * because some converters add loggers or taxa to it, so that every call sees the same context.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConverterBenchmark {
+
+    @State(Scope.Thread)
+    public static class Coalescent {
+        @Param({"100", "1000"})
+        int taxa;
+        @Param({"200", "2000"})
+        int L;
+        @Param({"4", "32"})
+        int dim;
+
+        LPhyParser parser;
+        BEASTContext context;
+        Value<SimpleAlignment> alignment;
+        Value<TimeTree> tree;
+        Value<Double[]> theta;
+        BEASTInterface beastTheta;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            parser = parseAndSample(SyntheticModels.coalescent(taxa, L, 1, dim));
+            alignment = parser.getModelDictionary().get(SyntheticModels.getAlignmentId(0, 1));
+            tree = parser.getModelDictionary().get("psi");
+            theta = parser.getModelDictionary().get("Theta");
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpContext() {
+            context = createConvertedContext(parser);
+            beastTheta = context.getBEASTObject(theta);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Structured {
+        @Param({"100", "1000"})
+        int taxa;
+        @Param({"2", "8"})
+        int demes;
+
+        LPhyParser parser;
+        BEASTContext context;
+        Value<TimeTree> tree;
+        BEASTInterface beastTree;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            parser = parseAndSample(SyntheticModels.structuredCoalescent(taxa, 200, demes));
+            tree = parser.getModelDictionary().get("psi");
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpContext() {
+            context = createConvertedContext(parser);
+            beastTree = context.getBEASTObject(tree);
+        }
+    }
+
+    static LPhyParser parseAndSample(String script) throws IOException {
+        LPhyParser parser = Conversions.parse(script);
+        Conversions.sample(parser);
+        return parser;
+    }
+
+    static BEASTContext createConvertedContext(LPhyParser parser) {
+        BEASTContext context = new BEASTContext(parser);
+        context.createBEASTObjects();
+        return context;
+    }
+
+    @Benchmark
+    public BEASTInterface alignmentToBEAST(Coalescent model) {
+        return new AlignmentToBEAST().valueToBEAST(model.alignment, model.context);
+    }
+
+    @Benchmark
+    public BEASTInterface timeTreeToBEAST(Coalescent model) {
+        return new TimeTreeToBEAST().valueToBEAST(model.tree, model.context);
+    }
+
+    @Benchmark
+    public BEASTInterface iidToBEAST(Coalescent model) {
+        return new IIDToBEAST().generatorToBEAST((IID) model.theta.getGenerator(), model.beastTheta, model.context);
+    }
+
+    @Benchmark
+    public BEASTInterface structuredCoalescentToMascot(Structured model) {
+        return new StructuredCoalescentToMascot().generatorToBEAST(
+                (StructuredCoalescent) model.tree.getGenerator(), model.beastTree, model.context);
+    }
+
+}
@@ -0,0 +1,44 @@
+package lphybeast.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end-to-end conversion from LPhy script to BEAST 2 XML,
+ * including parsing, sampling, logging the true values and writing the XML string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LPhyToXMLBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int taxa;
+    @Param({"200", "2000"})
+    int L;
+    @Param({"1", "4"})
+    int partitions;
+    @Param({"1", "8"})
+    int dim;
+
+    String script;
+    // the true values are logged into a temp folder
+    String filePathNoExt;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        script = SyntheticModels.coalescent(taxa, L, partitions, dim);
+        Path dir = Files.createTempDirectory("lphybeast-jmh");
+        filePathNoExt = dir.resolve("coal" + taxa).toString();
+    }
+
+    @Benchmark
+    public String lphyToXML() {
+        return Conversions.lphyToXML(script, filePathNoExt);
+    }
+
+}
@@ -0,0 +1,80 @@
+package lphybeast.benchmark;
+
+import beast.core.MCMC;
+import lphy.core.LPhyParser;
+import lphybeast.BEASTContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The cost of converting a parsed and sampled model into BEAST 2 XML,
+ * which excludes parsing and sampling, measured in the current thread.
+ */
+public final class ConversionMetrics {
+
+    // wall time of the conversion
+    public final long nanos;
+    // the peak of heap used during the conversion, above the heap used before it
+    public final long peakHeapBytes;
+    // the bytes allocated by the current thread, or -1 if the JVM does not support it
+    public final long allocatedBytes;
+    // the number of characters of XML
+    public final long xmlLength;
+
+    public ConversionMetrics(long nanos, long peakHeapBytes, long allocatedBytes, long xmlLength) {
+        this.nanos = nanos;
+        this.peakHeapBytes = peakHeapBytes;
+        this.allocatedBytes = allocatedBytes;
+        this.xmlLength = xmlLength;
+    }
+
+    /**
+     * Convert the model in a new {@link BEASTContext}, from the BEAST objects to the XML.
+     * @param parser        the parsed and sampled model, see {@link Conversions}.
+     * @param fileNameStem  the file name stem of XML loggers.
+     */
+    public static ConversionMetrics measure(LPhyParser parser, String fileNameStem) {
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+        System.gc();
+        long usedBefore = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long allocatedBefore = getAllocatedBytes();
+
+        long start = System.nanoTime();
+        BEASTContext context = new BEASTContext(parser);
+        MCMC mcmc = context.createMCMC(-1, fileNameStem, 0);
+        String xml = context.toXML(mcmc);
+        long nanos = System.nanoTime() - start;
+
+        long allocated = allocatedBefore < 0 ? -1 : getAllocatedBytes() - allocatedBefore;
+        // the sum of peaks of pools is an upper bound of the peak of heap
+        long peak = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        return new ConversionMetrics(nanos, Math.max(0, peak - usedBefore), allocated, xml.length());
+    }
+
+    // the bytes allocated by the current thread, or -1
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    public double getMillis() {
+        return nanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f ms, peak heap %.1f MB, allocated %.1f MB, XML %d chars",
+                getMillis(), peakHeapBytes / 1048576.0, allocatedBytes / 1048576.0, xmlLength);
+    }
+}
@@ -0,0 +1,60 @@
+package lphybeast.benchmark;
+
+import lphy.core.GraphicalLPhyParser;
+import lphy.core.LPhyParser;
+import lphy.core.Sampler;
+import lphy.graphicalModel.RandomValueLogger;
+import lphy.parser.REPL;
+import lphybeast.BEASTContext;
+import lphybeast.LPhyBEAST;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+/**
+ * The phases of a conversion, the same as {@link LPhyBEAST},
+ * but without logging the true values, so that each phase can be measured alone.
+ */
+public final class Conversions {
+
+    private Conversions() { }
+
+    /**
+     * @param script  LPhy script with data and model blocks.
+     * @return  the parser before sampling.
+     */
+    public static LPhyParser parse(String script) throws IOException {
+        LPhyParser parser = new REPL();
+        parser.source(new BufferedReader(new StringReader(script)));
+        return parser;
+    }
+
+    /**
+     * Sample the model once, which simulates the values to convert.
+     */
+    public static void sample(LPhyParser parser) {
+        Sampler sampler = new Sampler(new GraphicalLPhyParser(parser));
+        sampler.sample(1, new ArrayList<RandomValueLogger>());
+    }
+
+    /**
+     * @return  the {@link BEASTContext} of the parsed and sampled script, before any conversion.
+     */
+    public static BEASTContext createContext(String script) throws IOException {
+        LPhyParser parser = parse(script);
+        sample(parser);
+        return new BEASTContext(parser);
+    }
+
+    /**
+     * The end-to-end conversion, which also logs the true values.
+     * @param filePathNoExt  the path to log true values, and its file name is the stem of XML loggers.
+     * @return  BEAST 2 XML
+     */
+    public static String lphyToXML(String script, String filePathNoExt) {
+        return new LPhyBEAST().lphyToXML(script, filePathNoExt, -1, 0);
+    }
+
+}
@@ -0,0 +1,182 @@
+package lphybeast.benchmark;
+
+import lphy.core.LPhyParser;
+import lphybeast.LPhyBEAST;
+import lphybeast.ReplicateRunner;
+import lphybeast.benchmark.SyntheticModels.TreePrior;
+import org.json.JSONException;
+import org.json.JSONObject;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Convert a fixed corpus of models, and compare the throughput (conversions per second),
+ * allocation and XML size of each model to the baseline stored in JSON.
+ * It fails if any metric of any model is worse than the baseline beyond the tolerance,
+ * so that the extra objects in XML or extra passes in converters are caught before release.
+ * The throughput depends on the machine, so the baseline should be recorded on the machine running the gate.
+ * Every model is sampled from the same seed, so that the converted values are the same in every run.
+ */
+@Command(name = "regressionGate", description = "Compare the cost of conversions to the stored baseline.")
+public class RegressionGate implements Callable<Integer> {
+
+    static final String THROUGHPUT = "throughput";
+    static final String ALLOCATED_BYTES = "allocatedBytes";
+    static final String XML_LENGTH = "xmlLength";
+
+    @Option(names = {"--baseline"}, required = true, description = "the JSON file of the baseline.")
+    Path baselineFile;
+    @Option(names = {"--update"}, description = "record the current metrics as the baseline, instead of comparing.")
+    boolean update;
+    @Option(names = {"--tolerance"}, defaultValue = "0.05", description = "the relative tolerance of " +
+            "allocation and XML size, e.g. 0.05 fails if either grows more than 5%.")
+    double tolerance;
+    @Option(names = {"--time-tolerance"}, defaultValue = "0.2", description = "the relative tolerance of " +
+            "throughput, which is noisier than the others.")
+    double timeTolerance;
+    @Option(names = {"--warmup"}, defaultValue = "3", description = "the number of conversions before measuring.")
+    int warmup;
+    @Option(names = {"--iterations"}, defaultValue = "5", description = "the number of measured conversions, " +
+            "where the median is used.")
+    int iterations;
+    @Option(names = {"--seed"}, defaultValue = "777", description = "the seed to sample every model, " +
+            "which must be the same as the baseline.")
+    long seed;
+
+    /**
+     * The fixed corpus, do not change the models without recording a new baseline.
+     * @return  the name and LPhy script of every model in the corpus.
+     */
+    public static Map<String, String> getCorpus() {
+        Map<String, String> corpus = new LinkedHashMap<>();
+        corpus.put("coalescent-100", SyntheticModels.create(TreePrior.COALESCENT, 100, 500, 1));
+        corpus.put("coalescent-1000-4p", SyntheticModels.create(TreePrior.COALESCENT, 1000, 500, 4));
+        corpus.put("skyline-500-dim16", SyntheticModels.coalescent(500, 500, 1, 16));
+        corpus.put("yule-1000", SyntheticModels.create(TreePrior.BIRTH_DEATH, 1000, 500, 1));
+        corpus.put("structured-500", SyntheticModels.create(TreePrior.STRUCTURED_COALESCENT, 500, 500, 1));
+        corpus.put("partitions-200-16p", SyntheticModels.create(TreePrior.COALESCENT, 200, 200, 16));
+        return corpus;
+    }
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new RegressionGate()).execute(args);
+        System.exit(exitCode);
+    }
+
+    @Override
+    public Integer call() throws IOException, JSONException {
+        if (!update && !Files.exists(baselineFile)) {
+            System.err.println("The baseline " + baselineFile.toAbsolutePath() + " does not exist, " +
+                    "record it by '--update' (-PupdateBaseline) first.");
+            return 2;
+        }
+
+        JSONObject current = new JSONObject();
+        for (Map.Entry<String, String> model : getCorpus().entrySet()) {
+            JSONObject metrics = measure(model.getValue());
+            System.out.println(model.getKey() + " : " + metrics);
+            current.put(model.getKey(), metrics);
+        }
+
+        if (update) {
+            JSONObject baseline = new JSONObject();
+            baseline.put("lphybeast", LPhyBEAST.VERSION);
+            baseline.put("seed", seed);
+            baseline.put("models", current);
+            Files.write(baselineFile, baseline.toString(2).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Record the baseline to " + baselineFile.toAbsolutePath());
+            return 0;
+        }
+
+        JSONObject baselineJSON = new JSONObject(new String(Files.readAllBytes(baselineFile), StandardCharsets.UTF_8));
+        if (baselineJSON.has("seed") && baselineJSON.getLong("seed") != seed)
+            System.err.println("The baseline is recorded with the seed " + baselineJSON.getLong("seed") +
+                    ", but the models are sampled with " + seed + " !");
+        List<String> regressions = compare(baselineJSON.getJSONObject("models"), current);
+        if (regressions.isEmpty()) {
+            System.out.println("No regression against the baseline " + baselineFile.toAbsolutePath());
+            return 0;
+        }
+        System.err.println(regressions.size() + " regressions against the baseline " + baselineFile.toAbsolutePath() + " :");
+        for (String regression : regressions)
+            System.err.println("  " + regression);
+        return 1;
+    }
+
+    // the medians of the measured conversions
+    private JSONObject measure(String script) throws IOException, JSONException {
+        LPhyParser parser = Conversions.parse(script);
+        // the same values of the model in every run
+        ReplicateRunner.setSeed(seed);
+        Conversions.sample(parser);
+
+        for (int i = 0; i < warmup; i++)
+            ConversionMetrics.measure(parser, "gate");
+
+        long[] nanos = new long[iterations];
+        long[] allocated = new long[iterations];
+        long[] xmlLength = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            ConversionMetrics metrics = ConversionMetrics.measure(parser, "gate");
+            nanos[i] = metrics.nanos;
+            allocated[i] = metrics.allocatedBytes;
+            xmlLength[i] = metrics.xmlLength;
+        }
+
+        JSONObject metrics = new JSONObject();
+        metrics.put(THROUGHPUT, 1e9 / median(nanos));
+        metrics.put(ALLOCATED_BYTES, median(allocated));
+        metrics.put(XML_LENGTH, median(xmlLength));
+        return metrics;
+    }
+
+    /**
+     * @return  the regressions beyond the tolerance, including the models not in the baseline.
+     */
+    List<String> compare(JSONObject baseline, JSONObject current) throws JSONException {
+        List<String> regressions = new ArrayList<>();
+        // the old org.json in BEAST only has keys()
+        for (Iterator<?> it = current.keys(); it.hasNext(); ) {
+            String model = (String) it.next();
+            if (!baseline.has(model)) {
+                // the corpus is changed without recording a new baseline
+                regressions.add(model + " is not in the baseline");
+                continue;
+            }
+            JSONObject before = baseline.getJSONObject(model);
+            JSONObject after = current.getJSONObject(model);
+
+            // lower throughput is worse
+            double throughput = after.getDouble(THROUGHPUT);
+            if (throughput < before.getDouble(THROUGHPUT) * (1 - timeTolerance))
+                regressions.add(getMessage(model, THROUGHPUT, before.getDouble(THROUGHPUT), throughput));
+            // higher allocation and larger XML are worse, where -1 means allocation is not supported
+            for (String metric : new String[]{ALLOCATED_BYTES, XML_LENGTH}) {
+                long value = after.getLong(metric);
+                if (value >= 0 && before.getLong(metric) >= 0 && value > before.getLong(metric) * (1 + tolerance))
+                    regressions.add(getMessage(model, metric, before.getLong(metric), value));
+            }
+        }
+        return regressions;
+    }
+
+    private static String getMessage(String model, String metric, double before, double after) {
+        return String.format("%s %s : %.1f -> %.1f (%+.1f%%)", model, metric, before, after,
+                (after - before) / before * 100);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+}
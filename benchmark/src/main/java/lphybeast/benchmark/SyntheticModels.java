@@ -0,0 +1,162 @@
+package lphybeast.benchmark;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Generate LPhy scripts of the given size, so that the cost of conversions
+ * can be measured against the number of taxa, sequence length, partitions and vector dimension.
+ * The IDs avoid {@link lphy.graphicalModel.VectorUtils#INDEX_SEPARATOR},
+ * so that they are never parsed as the elements of a vector.
+ */
+public final class SyntheticModels {
+
+    private SyntheticModels() { }
+
+    /**
+     * The tree priors of synthetic models.
+     */
+    public enum TreePrior {
+        COALESCENT, BIRTH_DEATH, STRUCTURED_COALESCENT
+    }
+
+    // the number of demes used by create(...)
+    public static final int DEMES = 4;
+
+    /**
+     * @param treePrior   the tree prior, where the structured coalescent has {@link #DEMES} demes.
+     * @param taxa        the number of taxa.
+     * @param L           the sequence length of each partition.
+     * @param partitions  the number of alignments sharing the tree.
+     * @return  the LPhy script with data and model blocks.
+     */
+    public static String create(TreePrior treePrior, int taxa, int L, int partitions) {
+        switch (treePrior) {
+            case COALESCENT:
+                return coalescent(taxa, L, partitions, 1);
+            case BIRTH_DEATH:
+                return birthDeath(taxa, L, partitions);
+            case STRUCTURED_COALESCENT:
+                return structuredCoalescent(taxa, L, DEMES, partitions);
+            default:
+                throw new IllegalArgumentException("Unknown tree prior " + treePrior);
+        }
+    }
+
+    /**
+     * The coalescent model, where a constant population size is used if dim = 1,
+     * otherwise the skyline coalescent with dim population sizes
+     * drawn i.i.d. from a LogNormal.
+     * @param taxa        the number of taxa.
+     * @param L           the sequence length of each partition.
+     * @param partitions  the number of alignments sharing the tree, see {@link #appendPartitions(StringBuilder, int)}.
+     * @param dim         the number of population sizes, which is at most taxa - 1.
+     * @return  the LPhy script with data and model blocks.
+     */
+    public static String coalescent(int taxa, int L, int partitions, int dim) {
+        if (dim < 1 || dim > taxa - 1)
+            throw new IllegalArgumentException("The dimension " + dim + " has to be in [1, " + (taxa - 1) + "] !");
+
+        StringBuilder builder = new StringBuilder();
+        appendData(builder, L).append("  taxa = taxa(names=1:").append(taxa).append(");\n}\n");
+        builder.append("model {\n");
+        if (dim == 1) {
+            builder.append("  Theta ~ LogNormal(meanlog=3.0, sdlog=1.0);\n");
+            builder.append("  psi ~ Coalescent(theta=Theta, taxa=taxa);\n");
+        } else {
+            builder.append("  Theta ~ LogNormal(meanlog=3.0, sdlog=1.0, replicates=").append(dim).append(");\n");
+            builder.append("  psi ~ SkylineCoalescent(theta=Theta, taxa=taxa, groupSizes=")
+                    .append(toArray(split(taxa - 1, dim))).append(");\n");
+        }
+        return appendPartitions(builder, partitions).append("}").toString();
+    }
+
+    /**
+     * The Yule (pure birth) model, which is the birth-death model without extinction.
+     * @param taxa        the number of taxa.
+     * @param L           the sequence length of each partition.
+     * @param partitions  the number of alignments sharing the tree.
+     * @return  the LPhy script with data and model blocks.
+     */
+    public static String birthDeath(int taxa, int L, int partitions) {
+        StringBuilder builder = new StringBuilder();
+        appendData(builder, L).append("  taxa = taxa(names=1:").append(taxa).append(");\n}\n");
+        builder.append("model {\n");
+        builder.append("  birthRate ~ LogNormal(meanlog=3.0, sdlog=1.0);\n");
+        builder.append("  psi ~ Yule(lambda=birthRate, taxa=taxa);\n");
+        return appendPartitions(builder, partitions).append("}").toString();
+    }
+
+    /**
+     * @see #structuredCoalescent(int, int, int, int)
+     */
+    public static String structuredCoalescent(int taxa, int L, int demes) {
+        return structuredCoalescent(taxa, L, demes, 1);
+    }
+
+    /**
+     * The structured coalescent, where the taxa are divided evenly into demes,
+     * and the population sizes and migration rates are vectors.
+     * @param taxa        the number of taxa.
+     * @param L           the sequence length of each partition.
+     * @param demes       the number of demes, at least 2.
+     * @param partitions  the number of alignments sharing the tree.
+     * @return  the LPhy script with data and model blocks.
+     */
+    public static String structuredCoalescent(int taxa, int L, int demes, int partitions) {
+        if (demes < 2 || demes > taxa)
+            throw new IllegalArgumentException("The number of demes " + demes + " has to be in [2, " + taxa + "] !");
+
+        StringBuilder builder = new StringBuilder();
+        appendData(builder, L).append("}\n");
+        builder.append("model {\n");
+        builder.append("  Theta ~ LogNormal(meanlog=-3.0, sdlog=0.5, replicates=").append(demes).append(");\n");
+        builder.append("  m ~ LogNormal(meanlog=-1.0, sdlog=0.5, replicates=").append(demes * (demes - 1)).append(");\n");
+        builder.append("  M = migrationMatrix(theta=Theta, m=m);\n");
+        builder.append("  psi ~ StructuredCoalescent(M=M, k=").append(toArray(split(taxa, demes)))
+                .append(", sort=true);\n");
+        return appendPartitions(builder, partitions).append("}").toString();
+    }
+
+    private static StringBuilder appendData(StringBuilder builder, int L) {
+        return builder.append("data {\n").append("  L = ").append(L).append(";\n");
+    }
+
+    /**
+     * The alignments D (or D0, D1, ... if more than one partition) simulated by HKY
+     * on the tree psi, where every partition has its own kappa and frequencies.
+     */
+    static StringBuilder appendPartitions(StringBuilder builder, int partitions) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("The number of partitions " + partitions + " has to be positive !");
+        for (int i = 0; i < partitions; i++) {
+            String postfix = partitions > 1 ? Integer.toString(i) : "";
+            builder.append("  kappa").append(postfix).append(" ~ LogNormal(meanlog=1.0, sdlog=0.5);\n");
+            builder.append("  pi").append(postfix).append(" ~ Dirichlet(conc=[2.0,2.0,2.0,2.0]);\n");
+            builder.append("  D").append(postfix).append(" ~ PhyloCTMC(tree=psi, L=L, Q=hky(kappa=kappa")
+                    .append(postfix).append(", freq=pi").append(postfix).append("));\n");
+        }
+        return builder;
+    }
+
+    /**
+     * @return  the ID of the i-th alignment created by {@link #appendPartitions(StringBuilder, int)}.
+     */
+    public static String getAlignmentId(int i, int partitions) {
+        return partitions > 1 ? "D" + i : "D";
+    }
+
+    // split total into n positive integers whose sum is total
+    static int[] split(int total, int n) {
+        int[] sizes = new int[n];
+        Arrays.fill(sizes, total / n);
+        for (int i = 0; i < total % n; i++)
+            sizes[i]++;
+        return sizes;
+    }
+
+    private static String toArray(int[] values) {
+        return Arrays.stream(values).mapToObj(Integer::toString).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+}
@@ -0,0 +1,105 @@
+package lphybeast.benchmark;
+
+import lphy.core.LPhyParser;
+import lphybeast.benchmark.SyntheticModels.TreePrior;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Convert synthetic models from 10 to 50,000 taxa, and check the conversion time and peak heap
+ * grow near-linearly in the number of taxa and partitions,
+ * i.e. the ratio of costs between two sizes is at most (size ratio)^maxExponent * slack.
+ * It is not in the default test task, run it by <code>./gradlew :benchmark:scalingTest</code>.
+ * The system properties "scaling.maxTaxa", "scaling.maxExponent" and "scaling.slack" change the limits.
+ */
+public class ScalingTest {
+
+    static final int[] TAXA = new int[]{10, 100, 1000, 10000, 50000};
+    static final int[] PARTITIONS = new int[]{1, 4, 16, 64};
+    static final int L = 100;
+    // simulating the structured coalescent is slow
+    static final int STRUCTURED_MAX_TAXA = 10000;
+
+    // the costs below these are dominated by the fixed overhead, so not compared
+    static final double MIN_MILLIS = 20;
+    static final double MIN_HEAP_BYTES = 8 * 1048576;
+
+    static int maxTaxa;
+    static double maxExponent;
+    static double slack;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        maxTaxa = Integer.parseInt(System.getProperty("scaling.maxTaxa", "50000"));
+        maxExponent = Double.parseDouble(System.getProperty("scaling.maxExponent", "1.25"));
+        slack = Double.parseDouble(System.getProperty("scaling.slack", "1.5"));
+        // warm up the converters and JIT
+        for (int i = 0; i < 3; i++)
+            measure(SyntheticModels.create(TreePrior.COALESCENT, 10, L, 1));
+    }
+
+    @Test
+    public void testCoalescent() throws IOException {
+        assertScalingInTaxa(TreePrior.COALESCENT, maxTaxa);
+    }
+
+    @Test
+    public void testBirthDeath() throws IOException {
+        assertScalingInTaxa(TreePrior.BIRTH_DEATH, maxTaxa);
+    }
+
+    @Test
+    public void testStructuredCoalescent() throws IOException {
+        assertScalingInTaxa(TreePrior.STRUCTURED_COALESCENT, Math.min(maxTaxa, STRUCTURED_MAX_TAXA));
+    }
+
+    @Test
+    public void testPartitions() throws IOException {
+        int taxa = 100;
+        ConversionMetrics[] metrics = new ConversionMetrics[PARTITIONS.length];
+        for (int i = 0; i < PARTITIONS.length; i++) {
+            metrics[i] = measure(SyntheticModels.create(TreePrior.COALESCENT, taxa, L, PARTITIONS[i]));
+            System.out.println(taxa + " taxa, " + PARTITIONS[i] + " partitions : " + metrics[i]);
+        }
+        assertNearLinear("partitions", PARTITIONS, metrics);
+    }
+
+    private void assertScalingInTaxa(TreePrior treePrior, int maxTaxa) throws IOException {
+        int[] sizes = Arrays.stream(TAXA).filter(n -> n <= maxTaxa).toArray();
+        ConversionMetrics[] metrics = new ConversionMetrics[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            metrics[i] = measure(SyntheticModels.create(treePrior, sizes[i], L, 1));
+            System.out.println(treePrior + " " + sizes[i] + " taxa : " + metrics[i]);
+        }
+        assertNearLinear(treePrior + " taxa", sizes, metrics);
+    }
+
+    private static ConversionMetrics measure(String script) throws IOException {
+        LPhyParser parser = Conversions.parse(script);
+        Conversions.sample(parser);
+        return ConversionMetrics.measure(parser, "scaling");
+    }
+
+    private static void assertNearLinear(String name, int[] sizes, ConversionMetrics[] metrics) {
+        for (int i = 1; i < sizes.length; i++) {
+            double limit = Math.pow((double) sizes[i] / sizes[i-1], maxExponent) * slack;
+
+            if (metrics[i-1].getMillis() >= MIN_MILLIS) {
+                double ratio = metrics[i].getMillis() / metrics[i-1].getMillis();
+                assertTrue(String.format("Time of %s grows %.1f times from %d to %d, limit %.1f",
+                        name, ratio, sizes[i-1], sizes[i], limit), ratio <= limit);
+            }
+            if (metrics[i-1].peakHeapBytes >= MIN_HEAP_BYTES) {
+                double ratio = (double) metrics[i].peakHeapBytes / metrics[i-1].peakHeapBytes;
+                assertTrue(String.format("Peak heap of %s grows %.1f times from %d to %d, limit %.1f",
+                        name, ratio, sizes[i-1], sizes[i], limit), ratio <= limit);
+            }
+        }
+    }
+
+}
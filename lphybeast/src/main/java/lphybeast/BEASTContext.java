@@ -12,7 +12,9 @@ import beast.evolution.alignment.Alignment;
 import beast.evolution.alignment.Taxon;
 import beast.evolution.datatype.DataType;
 import beast.evolution.likelihood.AncestralStateTreeLikelihood;
+import beast.evolution.likelihood.GenericTreeLikelihood;
 import beast.evolution.operators.*;
+import beast.evolution.sitemodel.SiteModelInterface;
 import beast.evolution.substitutionmodel.Frequencies;
 import beast.evolution.tree.*;
 import beast.math.distributions.ParametricDistribution;
@@ -35,6 +37,16 @@ import lphy.evolution.tree.TimeTree;
 import lphy.graphicalModel.*;
 import lphy.util.LoggerUtils;
 import lphy.util.Symbols;
+import lphybeast.jfr.*;
+import lphybeast.tobeast.BatchPrior;
+import lphybeast.tobeast.ObjectDeduplicator;
+import lphybeast.tobeast.StoppableMCMC;
+import lphybeast.tobeast.generators.PhyloCTMCToBEAST;
+import lphybeast.tobeast.loggers.AsyncLogger;
+import lphybeast.tobeast.loggers.BinaryTreeLogger;
+import lphybeast.tobeast.loggers.BinaryTreeToNexus;
+import lphybeast.tobeast.loggers.ESSStoppingLogger;
+import lphybeast.tobeast.values.ArrayViews;
 import lphybeast.tobeast.values.ValueToParameter;
 import org.xml.sax.SAXException;
 
@@ -51,16 +63,14 @@ public class BEASTContext {
     public static final String PRIOR_ID = "prior";
     public static final String LIKELIHOOD_ID = "likelihood";
 
-    //*** registry ***//
+    // default number of samples in the log
+    public static final int NUM_OF_SAMPLES = 2000;
+    public static final long DEFAULT_CHAIN_LENGTH = 1000000;
 
-    List<ValueToBEAST> valueToBEASTList;
-    //use LinkedHashMap to keep inserted ordering, so the first matching converter is used.
-    Map<Class, GeneratorToBEAST> generatorToBEASTMap;
-    // LPhy SequenceType => BEAST DataType
-    Map<SequenceType, DataType> dataTypeMap;
+    //*** registry ***//
 
-    List<Class<? extends Generator>> excludedGeneratorClasses;
-    List<Class<? extends Value>> excludedValueClasses;
+    // the immutable converters, data types and exclusions shared by all contexts
+    ConverterRegistry registry;
 
     //*** to BEAST ***//
 
@@ -80,9 +90,42 @@ public class BEASTContext {
     // a list of beast state nodes to skip the automatic operator creation for.
     private Set<StateNode> skipOperators = new HashSet<>();
 
+    // a map of LPhy values to the BEAST parameter types required by the converters of their consuming generators
+    private Map<Value, Class<? extends Parameter>> parameterTypes = new HashMap<>();
+
+    // the slices of vectors, and the element index parsed from the unique id of nodes, -1 if not an element
+    private final SliceFactory sliceFactory = new SliceFactory();
+    private Map<GraphicalModelNode<?>, Integer> elementIndices = new HashMap<>();
+
     private List<Operator> extraOperators = new ArrayList<>();
     private List<Loggable> extraLoggables = new ArrayList<>();
 
+    // the number of samples in the log
+    private int numOfSamples = NUM_OF_SAMPLES;
+
+    // early stopping, disabled if both <= 0
+    private double stopESS = -1;
+    private double stopSeconds = -1;
+    private ESSStoppingLogger essStoppingLogger;
+
+    // the total number of threads shared by tree likelihoods, if <= 0, then use BEAST default
+    private int threadBudget = -1;
+    // evaluate the likelihoods of partitions in parallel
+    private boolean partitionThreading = false;
+    // the costs of partitions and the threads inside their likelihoods, computed once
+    private Map<Generator, Double> partitionCosts;
+    private Map<Generator, Integer> likelihoodThreads;
+
+    // WeightedDirichlet value is one multi-dimensional parameter, instead of a Concatenate of scalars
+    private boolean weightedDirichletParameter = false;
+
+    // all file loggers write on a background thread
+    private boolean asyncLogging = false;
+    // the standard trees are logged in the compact binary format
+    private boolean binaryTrees = false;
+    // many plain priors are evaluated by one BatchPrior
+    private boolean batchPriors = false;
+
     SortedMap<String, Taxon> allTaxa = new TreeMap<>();
 
     LPhyParser parser;
@@ -101,16 +144,11 @@ public class BEASTContext {
     }
 
     private void setRegisteredClasses(LPhyBEASTExtFactory factory){
-        valueToBEASTList = factory.valueToBEASTList;
-        generatorToBEASTMap = factory.generatorToBEASTMap;
-        dataTypeMap = factory.dataTypeMap;
-
-        excludedGeneratorClasses = factory.excludedGeneratorClasses;
-        excludedValueClasses = factory.excludedValueClasses;
+        registry = factory.getRegistry();
     }
 
     public Map<SequenceType, DataType> getDataTypeMap() {
-        return this.dataTypeMap;
+        return registry.getDataTypeMap();
     }
 
     public BEASTInterface getBEASTObject(GraphicalModelNode<?> node) {
@@ -144,11 +182,9 @@ public class BEASTContext {
         if (beastInterface != null) {
             return beastInterface;
         } else {
-            String id = node.getUniqueId();
-            String[] parts = id.split(VectorUtils.INDEX_SEPARATOR);
-            if (parts.length == 2) {
-                int index = Integer.parseInt(parts[1]);
-                Slice slice = createSliceFromVector(node, parts[0], index);
+            int index = getElementIndex(node);
+            if (index >= 0) {
+                Slice slice = createSliceFromVector(node, SliceFactory.parseVectorId(node.getUniqueId()), index);
                 beastObjects.put(node, slice);
                 return slice;
             }
@@ -165,13 +201,25 @@ public class BEASTContext {
 
         BEASTInterface parentNode = getBEASTObject(Symbols.getCanonical(id));
 
-        Slice slice = SliceFactory.createSlice(parentNode, index,
+        Slice slice = sliceFactory.getSlice(parentNode, index,
                 Symbols.getCanonical(id) + VectorUtils.INDEX_SEPARATOR + index);
         addToContext(node, slice);
         return slice;
 
     }
 
+    // the id is only parsed once for each node
+    private int getElementIndex(GraphicalModelNode<?> node) {
+        return elementIndices.computeIfAbsent(node, n -> SliceFactory.parseElementIndex(n.getUniqueId()));
+    }
+
+    /**
+     * @return  the factory to create the slices cached in this context.
+     */
+    public SliceFactory getSliceFactory() {
+        return sliceFactory;
+    }
+
     boolean byslice = false;
 
     /**
@@ -187,7 +235,7 @@ public class BEASTContext {
 
         if (slicedBEASTValue != null) {
             if (!(slicedBEASTValue instanceof Concatenate)) {
-                Slice slice = SliceFactory.createSlice(slicedBEASTValue, sliceValue.getIndex(), sliceValue.getId());
+                Slice slice = sliceFactory.getSlice(slicedBEASTValue, sliceValue.getIndex(), sliceValue.getId());
                 addToContext(sliceValue, slice);
                 return slice;
             } else {
@@ -215,6 +263,8 @@ public class BEASTContext {
     /**
      * This function will retrieve the beast object for this value and return it if it is a RealParameter,
      * or convert it to a RealParameter if it is an IntegerParameter and replace the original integer parameter in the relevant stores.
+     * The coercion should rarely happen, if the converter declares its inputs in
+     * {@link GeneratorToBEAST#getParameterTypes(Generator, BEASTContext)}.
      *
      * @param value
      * @return the RealParameter associated with this value if it exists, or can be coerced. Has a side-effect if coercion occurs.
@@ -230,9 +280,9 @@ public class BEASTContext {
                 addToContext(value, newParam);
                 return newParam;
             } else {
-                Double[] values = new Double[param.getDimension()];
+                double[] values = new double[param.getDimension()];
                 for (int i = 0; i < values.length; i++) {
-                    values[i] = ((IntegerParameter) param).getValue(i).doubleValue();
+                    values[i] = ((IntegerParameter) param).getValue(i);
                 }
 
                 RealParameter newParam = createRealParameter(param.getID(), values);
@@ -256,7 +306,7 @@ public class BEASTContext {
                 addToContext(value, newParam);
                 return newParam;
             } else {
-                Integer[] values = new Integer[param.getDimension()];
+                int[] values = new int[param.getDimension()];
                 for (int i = 0; i < values.length; i++) {
                     values[i] = ((RealParameter) param).getValue(i).intValue();
                 }
@@ -277,7 +327,10 @@ public class BEASTContext {
     }
 
     public void addBEASTObject(BEASTInterface newBEASTObject, GraphicalModelNode graphicalModelNode) {
+        RegistryEvent event = new RegistryEvent();
+        event.begin();
         elements.put(newBEASTObject, graphicalModelNode);
+        commitRegistryEvent(event, "addBEASTObject", newBEASTObject);
     }
 
     /**
@@ -285,14 +338,19 @@ public class BEASTContext {
      * @param graphicalModelNode the graphical model node that this state node corresponds to, or represents a part of
      */
     public void addStateNode(StateNode stateNode, GraphicalModelNode graphicalModelNode, boolean createOperators) {
+        RegistryEvent event = new RegistryEvent();
+        event.begin();
         if (!state.contains(stateNode)) {
             elements.put(stateNode, graphicalModelNode);
             state.add(stateNode);
         }
         if (!createOperators) skipOperators.add(stateNode);
+        commitRegistryEvent(event, "addStateNode", stateNode);
     }
 
     public void removeBEASTObject(BEASTInterface beastObject) {
+        RegistryEvent event = new RegistryEvent();
+        event.begin();
         elements.removeAll(beastObject);
         BEASTToLPHYMap.remove(beastObject);
         if (beastObject instanceof StateNode) state.remove(beastObject);
@@ -309,6 +367,18 @@ public class BEASTContext {
 
         // it may be in extraLoggables
         extraLoggables.remove(beastObject);
+        commitRegistryEvent(event, "removeBEASTObject", beastObject);
+    }
+
+    // the JFR event is only filled in if it is recorded
+    private static void commitRegistryEvent(RegistryEvent event, String operation, BEASTInterface beastObject) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.beastClass = beastObject == null ? null : beastObject.getClass().getName();
+            event.beastId = beastObject == null ? null : beastObject.getID();
+            event.commit();
+        }
     }
 
     public static RealParameter createRealParameter(Double[] value) {
@@ -348,8 +418,42 @@ public class BEASTContext {
     }
 
     public static RealParameter createRealParameter(String id, Double[] value) {
+        return createRealParameter(id, Arrays.asList(value));
+    }
+
+    /**
+     * The primitive-array construction path, which avoids boxing the whole array into an intermediate list.
+     * @param id     parameter ID, which can be null.
+     * @param value  parameter values
+     * @return  {@link RealParameter}
+     */
+    public static RealParameter createRealParameter(String id, double[] value) {
+        return createRealParameter(id, ArrayViews.ofDoubles(value));
+    }
+
+    /**
+     * @param id      parameter ID, which can be null.
+     * @param values  the values, preferably a view from {@link ArrayViews} rather than a copy.
+     * @return  {@link RealParameter}
+     */
+    public static RealParameter createRealParameter(String id, List<Double> values) {
         RealParameter parameter = new RealParameter();
-        parameter.setInputValue("value", Arrays.asList(value));
+        parameter.setInputValue("value", values);
+        parameter.initAndValidate();
+        if (id != null) parameter.setID(id);
+
+        return parameter;
+    }
+
+    /**
+     * The primitive-array construction path, which avoids boxing the whole array into an intermediate list.
+     * @param id     parameter ID, which can be null.
+     * @param value  parameter values
+     * @return  {@link IntegerParameter}
+     */
+    public static IntegerParameter createIntegerParameter(String id, int[] value) {
+        IntegerParameter parameter = new IntegerParameter();
+        parameter.setInputValue("value", ArrayViews.ofIntegers(value));
         parameter.initAndValidate();
         if (id != null) parameter.setID(id);
 
@@ -359,7 +463,8 @@ public class BEASTContext {
     public static Parameter<? extends Number> createParameterWithBound(
             Value<? extends Number[]> value, Number lower, Number upper, boolean forceToDouble) {
 
-        List<Number> values = Arrays.asList(value.value());
+        // views of the LPhy array, no copy
+        List<? extends Number> values = Arrays.asList(value.value());
 
         // forceToDouble will ignore whether component type is Integer or not
         if ( !forceToDouble &&
@@ -385,6 +490,10 @@ public class BEASTContext {
 
         } else { // Double and Number
 
+            // RealParameter requires Double elements
+            if ( !(value.value() instanceof Double[]) )
+                values = ArrayViews.asDoubles(value.value());
+
             RealParameter parameter = new RealParameter();
             parameter.setInputValue("value", values);
             parameter.setInputValue("dimension", values.size());
@@ -413,11 +522,17 @@ public class BEASTContext {
 
         List<Value<?>> sinks = parser.getModelSinks();
 
+        // infer the parameter types before any value is converted
+        Set<Generator> visited = new HashSet<>();
+        for (Value<?> value : sinks) {
+            inferParameterTypes(value, visited);
+        }
+
         for (Value<?> value : sinks) {
             createBEASTValueObjects(value);
         }
 
-        Set<Generator> visited = new HashSet<>();
+        visited.clear();
         for (Value<?> value : sinks) {
             traverseBEASTGeneratorObjects(value, true, false, visited);
         }
@@ -456,39 +571,51 @@ public class BEASTContext {
         return null;
     }
 
+    /**
+     * @see ConverterRegistry#getGeneratorToBEAST(Generator)
+     */
     public GeneratorToBEAST getGeneratorToBEAST(Generator generator) {
-        GeneratorToBEAST toBEAST = generatorToBEASTMap.get(generator.getClass());
-
-        if (toBEAST == null) {
-            // else see if there is a compatible to beast
-            for (Class c : generatorToBEASTMap.keySet()) {
-                // if *ToBEAST exists
-                if (c.isAssignableFrom(generator.getClass())) {
-                    toBEAST = generatorToBEASTMap.get(c);
-                }
-            }
-        }
-        return toBEAST;
+        return registry.getGeneratorToBEAST(generator);
     }
 
     public ValueToBEAST getMatchingValueToBEAST(Value value) {
-
-        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
-            if (possibleToBEAST.match(value)) {
-                return possibleToBEAST;
-            }
-        }
-        return null;
+        return registry.getMatchingValueToBEAST(value);
     }
 
     public ValueToBEAST getValueToBEAST(Object rawValue) {
-        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
-            // if *ToBEAST exists
-            if (possibleToBEAST.match(rawValue)) {
-                return possibleToBEAST;
+        return registry.getValueToBEAST(rawValue);
+    }
+
+    /**
+     * The pre-pass to work out the BEAST parameter type of each value from how its consuming generators use it,
+     * so that the right type is created first time in {@link #valueToBEAST(Value)}.
+     * @see GeneratorToBEAST#getParameterTypes(Generator, BEASTContext)
+     */
+    private void inferParameterTypes(Value<?> value, Set<Generator> visited) {
+
+        Generator<?> generator = value.getGenerator();
+        if (generator != null && !visited.contains(generator)) {
+            visited.add(generator);
+
+            for (Object inputObject : generator.getParams().values()) {
+                Value<?> input = (Value<?>) inputObject;
+                inferParameterTypes(input, visited);
+            }
+
+            GeneratorToBEAST toBEAST = getGeneratorToBEAST(generator);
+            if (toBEAST != null) {
+                Map<Value, Class<? extends Parameter>> types = toBEAST.getParameterTypes(generator, this);
+                for (Map.Entry<Value, Class<? extends Parameter>> entry : types.entrySet()) {
+                    // optional inputs
+                    if (entry.getKey() == null) continue;
+                    Class<? extends Parameter> type = parameterTypes.putIfAbsent(entry.getKey(), entry.getValue());
+                    // keep the first, the other consumer will fall back to coercion
+                    if (type != null && !type.equals(entry.getValue()))
+                        LoggerUtils.log.warning("Value " + entry.getKey().getId() + " is required to be both " +
+                                type.getSimpleName() + " and " + entry.getValue().getSimpleName() + " !");
+                }
             }
         }
-        return null;
     }
 
     /**
@@ -562,10 +689,16 @@ public class BEASTContext {
                 }
 
                 if (modifyValues) {
+                    ConverterEvent event = new ConverterEvent();
+                    event.begin();
                     toBEAST.modifyBEASTValues(generator, beastValue, this);
+                    commitConverterEvent(event, toBEAST, "modifyBEASTValues", generator, value, beastValue);
                 }
                 if (createGenerators) {
+                    ConverterEvent event = new ConverterEvent();
+                    event.begin();
                     beastGenerator = toBEAST.generatorToBEAST(generator, beastValue, this);
+                    commitConverterEvent(event, toBEAST, "generatorToBEAST", generator, value, beastGenerator);
                 }
             }
 
@@ -581,23 +714,39 @@ public class BEASTContext {
         }
     }
 
+    // the JFR event is only filled in if it is recorded, where generator is null for valueToBEAST
+    private static void commitConverterEvent(ConverterEvent event, Object converter, String method,
+                                             Generator generator, Value<?> value, BEASTInterface beastObject) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.converter = converter.getClass().getName();
+            event.method = method;
+            event.nodeId = generator == null ? value.getId() : generator.getName() + ":" + value.getId();
+            event.beastClass = beastObject == null ? null : beastObject.getClass().getName();
+            event.commit();
+        }
+    }
+
     private boolean isExcludedGenerator(Generator generator) {
-        if (Exclusion.isExcludedGenerator(generator))
-            return true;
-        for (Class<? extends Generator> gCls : excludedGeneratorClasses)
-            if (generator.getClass().isAssignableFrom(gCls))
-                return true;
-        return false;
+        return registry.isExcludedGenerator(generator);
     }
 
     private BEASTInterface valueToBEAST(Value<?> val) {
 
         BEASTInterface beastValue = null;
 
+        // the parameter type required by the consuming generators, if it differs from the value type
+        Class<? extends Parameter> parameterType = parameterTypes.get(val);
+        if (parameterType != null)
+            beastValue = createParameterOfType(val, parameterType);
+
         ValueToBEAST toBEAST = getMatchingValueToBEAST(val);
 
-        if (toBEAST != null) {
+        if (beastValue == null && toBEAST != null) {
+            ConverterEvent event = new ConverterEvent();
+            event.begin();
             beastValue = toBEAST.valueToBEAST(val, this);
+            commitConverterEvent(event, toBEAST, "valueToBEAST", null, val, beastValue);
         }
         if (beastValue == null) {
             if (!isExcludedValue(val))
@@ -612,17 +761,72 @@ public class BEASTContext {
         return beastValue;
     }
 
+    /**
+     * Create the parameter in the required type straight from the LPhy value,
+     * which replaces the coercion in {@link #getAsRealParameter(Value)} and {@link #getAsIntegerParameter(Value)}.
+     * The domain bounds of the generator are kept as in {@link lphybeast.tobeast.values.DoubleValueToBEAST},
+     * and doubles are always rounded to the nearest integer.
+     * @param value          the LPhy value
+     * @param parameterType  either {@link RealParameter} or {@link IntegerParameter}
+     * @return  the parameter, or null if the value is already in the required type or cannot be converted.
+     */
+    private Parameter<?> createParameterOfType(Value value, Class<? extends Parameter> parameterType) {
+        Object ob = value.value();
+        String id = value.isAnonymous() ? null : value.getCanonicalId();
+        Number[] bounds = value.getGenerator() instanceof GenerativeDistribution1D ?
+                ((GenerativeDistribution1D<? extends Number>) value.getGenerator()).getDomainBounds() : null;
+
+        Parameter.Base<?> parameter = null;
+        if (RealParameter.class.equals(parameterType)) {
+            if (ob instanceof Integer)
+                parameter = createRealParameter(id, ((Integer) ob).doubleValue());
+            else if (ob instanceof Integer[])
+                parameter = createRealParameter(id, ArrayViews.asDoubles((Integer[]) ob));
+            if (parameter != null && bounds != null) {
+                if (bounds[0] != null && bounds[0].intValue() > Integer.MIN_VALUE)
+                    parameter.setInputValue("lower", bounds[0].doubleValue());
+                if (bounds[1] != null && bounds[1].intValue() < Integer.MAX_VALUE)
+                    parameter.setInputValue("upper", bounds[1].doubleValue());
+            }
+        } else if (IntegerParameter.class.equals(parameterType)) {
+            if (ob instanceof Double)
+                parameter = createIntegerParameter(id, toIntExact(Math.round((Double) ob)));
+            else if (ob instanceof Double[]) {
+                Double[] doubles = (Double[]) ob;
+                int[] values = new int[doubles.length];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = toIntExact(Math.round(doubles[i]));
+                parameter = createIntegerParameter(id, values);
+            }
+            if (parameter != null && bounds != null) {
+                // the integers inside the real domain
+                if (bounds[0] != null && bounds[0].doubleValue() != Double.NEGATIVE_INFINITY)
+                    parameter.setInputValue("lower", (int) Math.ceil(bounds[0].doubleValue()));
+                if (bounds[1] != null && bounds[1].doubleValue() != Double.POSITIVE_INFINITY)
+                    parameter.setInputValue("upper", (int) Math.floor(bounds[1].doubleValue()));
+            }
+        }
+        if (parameter != null && bounds != null)
+            parameter.initAndValidate();
+        return parameter;
+    }
+
+    /**
+     * @return  the parameter type required by the consumers of the value, or null if it is not required.
+     * @see GeneratorToBEAST#getParameterTypes(Generator, BEASTContext)
+     */
+    public Class<? extends Parameter> getParameterType(Value value) {
+        return parameterTypes.get(value);
+    }
+
     private boolean isExcludedValue(Value value) {
-        if (Exclusion.isExcludedValue(value))
-            return true;
-        for (Class<? extends Value> vCls : excludedValueClasses)
-            if (value.getClass().isAssignableFrom(vCls))
-                return true;
-        return false;
+        return registry.isExcludedValue(value);
     }
 
     // fill in beastObjects, BEASTToLPHYMap, elements, and state
     private void addToContext(GraphicalModelNode node, BEASTInterface beastInterface) {
+        RegistryEvent event = new RegistryEvent();
+        event.begin();
         beastObjects.put(node, beastInterface);
         BEASTToLPHYMap.put(beastInterface, node);
         elements.put(beastInterface, node);
@@ -665,6 +869,7 @@ public class BEASTContext {
                 }
             }
         }
+        commitRegistryEvent(event, "addToContext", beastInterface);
     }
 
     public boolean isState(GraphicalModelNode node) {
@@ -744,12 +949,262 @@ public class BEASTContext {
         List<Logger> loggers = new ArrayList<>();
         // reduce screen logging
         loggers.add(createScreenLogger(logEvery * 100));
-        loggers.add(createLogger(logEvery, fileName + ".log"));
-        loggers.addAll(createTreeLoggers(logEvery, fileName));
-
+        List<Logger> fileLoggers = new ArrayList<>();
+        fileLoggers.add(createLogger(logEvery, fileName + ".log"));
+        fileLoggers.addAll(createTreeLoggers(logEvery, fileName));
+        if (isEarlyStopping())
+            fileLoggers.add(createESSLogger(logEvery, fileName + ".ess.log"));
+
+        for (Logger logger : fileLoggers)
+            // the binary tree log is not text, and it is already buffered
+            loggers.add(asyncLogging && !(logger instanceof BinaryTreeLogger) ? createAsyncLogger(logger) : logger);
         return loggers;
     }
 
+    /**
+     * Replace the file logger by {@link AsyncLogger} with the same inputs,
+     * including the loggers created by {@link ExtraLogger#createExtraLogger(int, String)}.
+     */
+    private Logger createAsyncLogger(Logger logger) {
+        AsyncLogger asyncLogger = new AsyncLogger();
+        asyncLogger.setInputValue("fileName", logger.fileNameInput.get());
+        asyncLogger.setInputValue("logEvery", logger.everyInput.get());
+        asyncLogger.setInputValue("log", new ArrayList<>(logger.loggersInput.get()));
+        asyncLogger.setInputValue("mode", logger.modeInput.get());
+        asyncLogger.initAndValidate();
+        asyncLogger.setID(logger.getID());
+
+        // the replaced logger is no longer an output of its loggables
+        for (BEASTObject loggable : logger.loggersInput.get())
+            loggable.getOutputs().remove(logger);
+        elements.removeAll(logger);
+        elements.put(asyncLogger, null);
+        return asyncLogger;
+    }
+
+    // track the ESS of posterior, likelihood, prior and scalar real parameters
+    private Logger createESSLogger(int logEvery, String fileName) {
+        List<Function> functions = new ArrayList<>(Arrays.asList(topDist));
+        for (StateNode stateNode : state) {
+            if (stateNode instanceof RealParameter && stateNode.getDimension() == 1)
+                functions.add((RealParameter) stateNode);
+        }
+
+        essStoppingLogger = new ESSStoppingLogger();
+        essStoppingLogger.setInputValue("arg", functions);
+        essStoppingLogger.setInputValue("minESS", stopESS);
+        essStoppingLogger.setInputValue("maxTime", stopSeconds);
+        // 10% of the samples so far
+        essStoppingLogger.setInputValue("burninPercentage", 10.0);
+        essStoppingLogger.initAndValidate();
+        essStoppingLogger.setID("ESSStopping");
+        elements.put(essStoppingLogger, null);
+
+        Logger logger = new Logger();
+        logger.setInputValue("logEvery", logEvery);
+        logger.setInputValue("log", essStoppingLogger);
+        logger.setInputValue("fileName", fileName);
+        logger.initAndValidate();
+        elements.put(logger, null);
+        return logger;
+    }
+
+    /**
+     * Stop the MCMC early, when the ESS of the posterior, likelihood, prior
+     * and every scalar real parameter is at least minESS after 10% burnin of the samples so far,
+     * or the wall-clock time is over maxSeconds.
+     * The chain length is then the upper limit.
+     * @param minESS      if <= 0, then ignore ESS.
+     * @param maxSeconds  if <= 0, then no time limit.
+     */
+    public void setEarlyStopping(double minESS, double maxSeconds) {
+        this.stopESS = minESS;
+        this.stopSeconds = maxSeconds;
+    }
+
+    public boolean isEarlyStopping() {
+        return stopESS > 0 || stopSeconds > 0;
+    }
+
+    /**
+     * @param threadBudget  the total number of threads shared by tree likelihoods
+     *                      in proportion to the cost of partitions,
+     *                      where small partitions use the plain TreeLikelihood.
+     *                      If <= 0, then use BEAST default.
+     */
+    public void setThreadBudget(int threadBudget) {
+        this.threadBudget = threadBudget;
+    }
+
+    public int getThreadBudget() {
+        return threadBudget;
+    }
+
+    /**
+     * @param partitionThreading  if true, the likelihoods of partitions are evaluated in parallel
+     *                            by the "likelihood" CompoundDistribution, sharing the thread budget.
+     */
+    public void setPartitionThreading(boolean partitionThreading) {
+        this.partitionThreading = partitionThreading;
+    }
+
+    /**
+     * @param weightedDirichletParameter  if true, a WeightedDirichlet value is converted into
+     *                                    one multi-dimensional parameter with a weighted delta exchange,
+     *                                    where the elements are keyed by their IDs and accessed by slices.
+     *                                    Otherwise, a Concatenate of scalar parameters.
+     */
+    public void setWeightedDirichletParameter(boolean weightedDirichletParameter) {
+        this.weightedDirichletParameter = weightedDirichletParameter;
+    }
+
+    /**
+     * @param asyncLogging  if true, then all file loggers are {@link AsyncLogger},
+     *                      which write on a background thread.
+     */
+    public void setAsyncLogging(boolean asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    /**
+     * @param binaryTrees  if true, then the trees are logged by {@link BinaryTreeLogger} into *.btrees,
+     *                     which can be converted to NEXUS by {@link BinaryTreeToNexus}.
+     *                     The trees with traits or Mascot annotations are still logged in NEXUS.
+     */
+    public void setBinaryTrees(boolean binaryTrees) {
+        this.binaryTrees = binaryTrees;
+    }
+
+    /**
+     * @param batchPriors  if true, and there are at least {@link BatchPrior#MIN_BATCH_SIZE} plain priors,
+     *                     then they are evaluated by one {@link BatchPrior}.
+     */
+    public void setBatchPriors(boolean batchPriors) {
+        this.batchPriors = batchPriors;
+    }
+
+    public boolean isWeightedDirichletParameter() {
+        return weightedDirichletParameter;
+    }
+
+    /**
+     * The partitions which can run in parallel are bounded by the number of partitions,
+     * the thread budget, and the total cost over the largest cost,
+     * because one dominant partition gains little from running beside the small ones.
+     * @param costs  the costs of partitions, see {@link #getPartitionCosts()}.
+     * @return  the number of threads of the "likelihood" CompoundDistribution, or 1 if not in parallel.
+     */
+    public int getPartitionThreads(double[] costs) {
+        if (!partitionThreading || threadBudget < 2 || costs.length < 2)
+            return 1;
+        double totalCost = 0;
+        double maxCost = 0;
+        for (double cost : costs) {
+            totalCost += cost;
+            maxCost = Math.max(maxCost, cost);
+        }
+        int threads = Math.min(threadBudget, costs.length);
+        if (maxCost > 0)
+            threads = Math.min(threads, (int) Math.ceil(totalCost / maxCost));
+        return threads;
+    }
+
+    /**
+     * The costs of partitions are computed once, after the alignments are converted,
+     * so that the same costs are shared by {@link #getPartitionThreads(double[])}
+     * and {@link #getLikelihoodThreads(Generator)}.
+     * @return  the costs of partitions keyed by their generators,
+     *          see {@link PhyloCTMCToBEAST#getPartitionCosts(BEASTContext)}.
+     */
+    public Map<Generator, Double> getPartitionCosts() {
+        if (partitionCosts == null)
+            partitionCosts = Collections.unmodifiableMap(PhyloCTMCToBEAST.getPartitionCosts(this));
+        return partitionCosts;
+    }
+
+    private double[] getPartitionCostArray() {
+        return getPartitionCosts().values().stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * Share the thread budget between the partitions in proportion to their costs {@link #getPartitionCosts()}
+     * by the largest remainder method, so that the total is never over the budget.
+     * If partitions are evaluated in parallel {@link #getPartitionThreads(double[])},
+     * then only the threads left over are shared, so that two levels do not oversubscribe the cores.
+     * @param partition  the generator of the partition.
+     * @return  the number of threads for the likelihood of this partition, at least 1,
+     *          or -1 if the thread budget is not given.
+     */
+    public int getLikelihoodThreads(Generator partition) {
+        if (threadBudget < 1)
+            return -1;
+        if (likelihoodThreads == null) {
+            double[] costs = getPartitionCostArray();
+            int partitionThreads = getPartitionThreads(costs);
+            int[] threads;
+            if (partitionThreads > 1) {
+                // each partition is already evaluated by one of the partition threads
+                threads = allocateByLargestRemainder(threadBudget - partitionThreads, costs);
+                for (int i = 0; i < threads.length; i++)
+                    threads[i]++;
+            } else {
+                threads = allocateByLargestRemainder(threadBudget, costs);
+            }
+
+            likelihoodThreads = new HashMap<>();
+            int i = 0;
+            for (Generator generator : getPartitionCosts().keySet())
+                likelihoodThreads.put(generator, Math.max(1, threads[i++]));
+        }
+        return likelihoodThreads.getOrDefault(partition, 1);
+    }
+
+    // the integer shares of the total in proportion to the weights, which sum to the total
+    private static int[] allocateByLargestRemainder(int total, double[] weights) {
+        int[] shares = new int[weights.length];
+        double totalWeight = 0;
+        for (double weight : weights) totalWeight += weight;
+        if (total <= 0 || totalWeight <= 0)
+            return shares;
+
+        double[] remainders = new double[weights.length];
+        int allocated = 0;
+        for (int i = 0; i < weights.length; i++) {
+            double quota = total * weights[i] / totalWeight;
+            shares[i] = (int) Math.floor(quota);
+            remainders[i] = quota - shares[i];
+            allocated += shares[i];
+        }
+        // the rest to the largest remainders
+        Integer[] order = new Integer[weights.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(remainders[b], remainders[a]));
+        for (int k = 0; k < total - allocated; k++)
+            shares[order[k]]++;
+        return shares;
+    }
+
+    /**
+     * @return  the expected cost of the tree likelihood of a partition,
+     *          which is patterns * taxa * states * categories.
+     */
+    public static double getLikelihoodCost(Alignment alignment, int categoryCount) {
+        return (double) alignment.getPatternCount() * alignment.getTaxonCount() *
+                alignment.getDataType().getStateCount() * categoryCount;
+    }
+
+    /**
+     * @return  the expected cost of the tree likelihood, or 0 if it has no alignment or site model.
+     * @see #getLikelihoodCost(Alignment, int)
+     */
+    public static double getLikelihoodCost(GenericTreeLikelihood treeLikelihood) {
+        Alignment alignment = treeLikelihood.dataInput.get();
+        SiteModelInterface siteModel = treeLikelihood.siteModelInput.get();
+        if (alignment == null || siteModel == null)
+            return 0;
+        return getLikelihoodCost(alignment, siteModel.getCategoryCount());
+    }
+
     private Logger createLogger(int logEvery, String fileName) {
 
         List<Loggable> nonTrees = state.stream()
@@ -849,18 +1304,21 @@ public class BEASTContext {
             boolean logMetaData = generator instanceof SkylineCoalescent ||
                     generator instanceof StructuredCoalescent;
 
-            Logger logger = new Logger();
+            Logger logger = binaryTrees ? new BinaryTreeLogger() : new Logger();
             logger.setInputValue("logEvery", logEvery);
-            if (logMetaData) { // TODO
+            if (binaryTrees) // TreeWithMetaDataLogger without metadata only logs the tree
+                logger.setInputValue("log", tree);
+            else if (logMetaData) { // TODO
                 TreeWithMetaDataLogger treeWithMetaDataLogger = new TreeWithMetaDataLogger();
                 treeWithMetaDataLogger.setInputValue("tree", tree);
                 logger.setInputValue("log", treeWithMetaDataLogger);
             } else
                 logger.setInputValue("log", tree);
 
-            String fileName = Objects.requireNonNull(fileNameStem) + ".trees";
+            String extension = binaryTrees ? ".btrees" : ".trees";
+            String fileName = Objects.requireNonNull(fileNameStem) + extension;
             if (multipleTrees) // multi-partitions and unlink trees
-                fileName = fileNameStem + "_" + tree.getID() + ".trees";
+                fileName = fileNameStem + "_" + tree.getID() + extension;
 
             logger.setInputValue("fileName", fileName);
             logger.setInputValue("mode", "tree");
@@ -1115,6 +1573,8 @@ public class BEASTContext {
         System.out.println("Found " + likelihoodList.size() + " likelihoods.");
         System.out.println("Found " + priorList.size() + " priors.");
 
+        priorList = batchPriors(priorList);
+
         CompoundDistribution priors = new CompoundDistribution();
         priors.setInputValue("distribution", priorList);
         priors.initAndValidate();
@@ -1123,6 +1583,14 @@ public class BEASTContext {
 
         CompoundDistribution likelihoods = new CompoundDistribution();
         likelihoods.setInputValue("distribution", likelihoodList);
+        // the same costs as the threads inside likelihoods
+        int partitionThreads = getPartitionThreads(getPartitionCostArray());
+        if (partitionThreads > 1) {
+            likelihoods.setInputValue("useThreads", true);
+            likelihoods.setInputValue("threads", partitionThreads);
+            System.out.println("Evaluate " + likelihoodList.size() + " likelihoods using " +
+                    partitionThreads + " threads.");
+        }
         likelihoods.initAndValidate();
         likelihoods.setID(LIKELIHOOD_ID);
         elements.put(likelihoods, null);
@@ -1140,6 +1608,38 @@ public class BEASTContext {
         return posterior;
     }
 
+    // group the plain priors into one BatchPrior, if it is enabled and there are many
+    private List<Distribution> batchPriors(List<Distribution> priorList) {
+        if (!batchPriors)
+            return priorList;
+        List<Prior> batchable = new ArrayList<>();
+        List<Distribution> others = new ArrayList<>();
+        for (Distribution dist : priorList) {
+            if (BatchPrior.isBatchable(dist))
+                batchable.add((Prior) dist);
+            else
+                others.add(dist);
+        }
+        if (batchable.size() < BatchPrior.MIN_BATCH_SIZE)
+            return priorList;
+
+        BatchPrior batchPrior = BatchPrior.createBatchPrior(batchable);
+        batchPrior.setID("batchPrior");
+        elements.put(batchPrior, null);
+        // the batched priors are no longer in the posterior,
+        // which are removed together, as removeBEASTObject searches beastObjects for each
+        Set<BEASTInterface> batched = new HashSet<>(batchable);
+        for (Prior prior : batchable) {
+            elements.removeAll(prior);
+            BEASTToLPHYMap.remove(prior);
+        }
+        beastObjects.values().removeIf(batched::contains);
+        extraLoggables.removeAll(batched);
+        others.add(batchPrior);
+        System.out.println("Evaluate " + batchable.size() + " priors in one batch.");
+        return others;
+    }
+
     private boolean generatorOfSink(Generator g) {
         for (Value<?> var : parser.getModelSinks()) {
             if (var.getGenerator() == g) {
@@ -1161,20 +1661,31 @@ public class BEASTContext {
     public MCMC createMCMC(long chainLength, int logEvery, String fileName, int preBurnin) {
 
         createBEASTObjects();
+        coalesceSlices();
 
+        PosteriorEvent posteriorEvent = new PosteriorEvent();
+        posteriorEvent.begin();
         CompoundDistribution posterior = createBEASTPosterior();
+        posteriorEvent.stateNodes = state.size();
+        posteriorEvent.commit();
 
-        MCMC mcmc = new MCMC();
+        MCMC mcmc = isEarlyStopping() ? new StoppableMCMC() : new MCMC();
         mcmc.setInputValue("distribution", posterior);
         mcmc.setInputValue("chainLength", chainLength);
 
+        OperatorEvent operatorEvent = new OperatorEvent();
+        operatorEvent.begin();
         List<Operator> operators = createOperators();
+        operatorEvent.operators = operators.size();
+        operatorEvent.commit();
         for (int i = 0; i < operators.size(); i++) {
             System.out.println(operators.get(i));
         }
 
         mcmc.setInputValue("operator", operators);
         mcmc.setInputValue("logger", createLoggers(logEvery, fileName));
+        if (isEarlyStopping())
+            mcmc.setInputValue("stopBy", essStoppingLogger);
 
         State state = new State();
         state.setInputValue("stateNode", this.state);
@@ -1195,6 +1706,28 @@ public class BEASTContext {
         return mcmc;
     }
 
+    // replace adjacent single-element slices in a Concatenate by one ranged slice
+    private void coalesceSlices() {
+        List<Concatenate> concatenates = new ArrayList<>();
+        for (BEASTInterface beastInterface : elements.keySet()) {
+            if (beastInterface instanceof Concatenate)
+                concatenates.add((Concatenate) beastInterface);
+        }
+        // the same as batchPriors, the replaced slices are removed together
+        Set<BEASTInterface> removed = new HashSet<>();
+        for (Concatenate concatenate : concatenates) {
+            for (Slice slice : sliceFactory.coalesceSlices(concatenate)) {
+                elements.removeAll(slice);
+                BEASTToLPHYMap.remove(slice);
+                removed.add(slice);
+            }
+        }
+        if (removed.size() > 0) {
+            beastObjects.values().removeIf(removed::contains);
+            System.out.println("Merge " + removed.size() + " single-element slices into ranged slices.");
+        }
+    }
+
     protected int getAllStatesSize(List<StateNode> stateNodes) {
         int size = 0;
         for (StateNode stateNode : stateNodes) {
@@ -1210,16 +1743,22 @@ public class BEASTContext {
         state.clear();
         elements.clear();
         beastObjects.clear();
+        parameterTypes.clear();
+        partitionCosts = null;
+        likelihoodThreads = null;
+        sliceFactory.clear();
+        elementIndices.clear();
+        essStoppingLogger = null;
         extraOperators.clear();
         skipOperators.clear();
     }
 
     public void runBEAST(String fileNameStem) {
 
-        MCMC mcmc = createMCMC(1000000, 1000, fileNameStem, 0);
+        MCMC mcmc = createMCMC(-1, fileNameStem, 0);
 
         try {
-            mcmc.run();
+            runMCMC(mcmc);
         } catch (IOException e) {
             e.printStackTrace();
         } catch (SAXException e) {
@@ -1230,34 +1769,151 @@ public class BEASTContext {
     }
 
     /**
-     * Create BEAST 2 XML from LPhy objects.
+     * Run the MCMC object graph in-process, without the XML round-trip.
+     * @param mcmc  the MCMC created by {@link #createMCMC(long, String, int)}.
+     */
+    public static void runMCMC(MCMC mcmc) throws IOException, SAXException, ParserConfigurationException {
+        mcmc.run();
+    }
+
+    /**
+     * @param chainLength  if <=0, then use default 1,000,000.
+     * @return  the chain length, which is default to 1,000,000 if not given.
+     */
+    public static long getChainLength(long chainLength) {
+        // default to 1M if not specified
+        if (chainLength <= 0)
+            return DEFAULT_CHAIN_LENGTH;
+        return chainLength;
+    }
+
+    /**
+     * @param chainLength  the total chain length, which must be positive.
+     * @return logEvery = chainLength / numOfSamples, where numOfSamples = 2000 as default.
+     */
+    public static int getLogEvery(long chainLength) {
+        return getLogEvery(chainLength, NUM_OF_SAMPLES);
+    }
+
+    /**
+     * @param chainLength  the total chain length, which must be positive.
+     * @param numOfSamples the number of samples in the log.
+     * @return logEvery = chainLength / numOfSamples, but at least 1,
+     *         e.g. a short chain fitted to a time budget.
+     */
+    public static int getLogEvery(long chainLength, int numOfSamples) {
+        // Will throw an ArithmeticException in case of overflow.
+        return Math.max(1, toIntExact(chainLength / numOfSamples));
+    }
+
+    /**
+     * @param numOfSamples  the number of samples in the log, if <= 0, then use default 2000.
+     */
+    public void setNumOfSamples(int numOfSamples) {
+        this.numOfSamples = numOfSamples > 0 ? numOfSamples : NUM_OF_SAMPLES;
+    }
+
+    public int getNumOfSamples() {
+        return numOfSamples;
+    }
+
+    /**
+     * Change the chain length and log interval of the MCMC created by this context,
+     * e.g. after the cost of an iteration is calibrated.
+     * @param mcmc         the MCMC created by {@link #createMCMC(long, String, int)}.
+     * @param chainLength  the new chain length.
+     */
+    public void setChainLength(MCMC mcmc, long chainLength) {
+        int logEvery = getLogEvery(chainLength, numOfSamples);
+        LoggerUtils.log.info("Reset MCMC total chain length = " + chainLength +
+                ", log every = " + logEvery + ", samples = " + numOfSamples);
+
+        mcmc.setInputValue("chainLength", chainLength);
+        for (Logger logger : mcmc.loggersInput.get()) {
+            // reduce screen logging
+            logger.setInputValue("logEvery", logger.fileNameInput.get() == null ? logEvery * 100 : logEvery);
+            logger.initAndValidate();
+        }
+    }
+
+    /**
+     * Create BEAST MCMC object graph from LPhy objects,
+     * which either produces XML or runs in-process.
      *
-     * @param fileNameStem
      * @param chainLength  if <=0, then use default 1,000,000.
      *                     logEvery = chainLength / numOfSamples,
      *                     where numOfSamples = 2000 as default.
+     * @param fileNameStem the file name stem of loggers.
      * @param preBurnin    preBurnin for BEAST MCMC, default to 0.
-     * @return BEAST 2 XML in String
+     * @return  {@link MCMC}
      */
-    public String toBEASTXML(final String fileNameStem, long chainLength, int preBurnin) {
+    public MCMC createMCMC(long chainLength, String fileNameStem, int preBurnin) {
 
-        final int numOfSamples = 2000;
-        // default to 1M if not specified
-        if (chainLength <= 0)
-            chainLength = 1000000;
-        // Will throw an ArithmeticException in case of overflow.
-        int logEvery = toIntExact(chainLength / numOfSamples);
+        chainLength = getChainLength(chainLength);
+        int logEvery = getLogEvery(chainLength, numOfSamples);
 
         LoggerUtils.log.info("MCMC total chain length = " + chainLength +
                 ", log every = " + logEvery + ", samples = " + numOfSamples);
 
-        MCMC mcmc = createMCMC(chainLength, logEvery, fileNameStem, preBurnin);
+        return createMCMC(chainLength, logEvery, fileNameStem, preBurnin);
+    }
 
-        String xml = new XMLProducer().toXML(mcmc, elements.keySet());
+    /**
+     * The structurally equal objects are merged into one instance before the XML is produced,
+     * see {@link ObjectDeduplicator}.
+     * @param mcmc  the MCMC created by this context.
+     * @return BEAST 2 XML in String
+     */
+    public String toXML(MCMC mcmc) {
+        return toXML(mcmc, true);
+    }
 
+    /**
+     * @param mcmc         the MCMC created by this context.
+     * @param deduplicate  if true, merge the structurally equal objects, which rewires the inputs of mcmc.
+     *                     Use false, if mcmc is going to run, where the XML is only a record.
+     * @return BEAST 2 XML in String
+     */
+    public String toXML(MCMC mcmc, boolean deduplicate) {
+        if (deduplicate)
+            deduplicate(mcmc);
+        XMLEvent event = new XMLEvent();
+        event.begin();
+        String xml = new XMLProducer().toXML(mcmc, elements.keySet());
+        event.operation = "produce";
+        event.length = xml.length();
+        event.commit();
         return xml;
     }
 
+    private void deduplicate(MCMC mcmc) {
+        List<BEASTInterface> roots = new ArrayList<>();
+        roots.add(mcmc);
+        roots.addAll(elements.keySet());
+        Map<BEASTInterface, BEASTInterface> duplicates = new ObjectDeduplicator(state).deduplicate(roots);
+        for (BEASTInterface duplicate : duplicates.keySet())
+            elements.removeAll(duplicate);
+        if (duplicates.size() > 0)
+            System.out.println("Merge " + duplicates.size() + " duplicate objects into shared instances.");
+    }
+
+    /**
+     * Create BEAST 2 XML from LPhy objects.
+     *
+     * @param fileNameStem
+     * @param chainLength  if <=0, then use default 1,000,000.
+     *                     logEvery = chainLength / numOfSamples,
+     *                     where numOfSamples = 2000 as default.
+     * @param preBurnin    preBurnin for BEAST MCMC, default to 0.
+     * @return BEAST 2 XML in String
+     */
+    public String toBEASTXML(final String fileNameStem, long chainLength, int preBurnin) {
+
+        MCMC mcmc = createMCMC(chainLength, fileNameStem, preBurnin);
+
+        return toXML(mcmc);
+    }
+
     public void addSkipOperator(StateNode stateNode) {
         skipOperators.add(stateNode);
     }
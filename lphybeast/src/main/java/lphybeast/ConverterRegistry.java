@@ -0,0 +1,148 @@
+package lphybeast;
+
+import beast.evolution.datatype.DataType;
+import jebl.evolution.sequences.SequenceType;
+import lphy.graphicalModel.Generator;
+import lphy.graphicalModel.Value;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The immutable snapshot of converters registered by {@link LPhyBEASTExtFactory},
+ * which is shared by all {@link BEASTContext}, and safe to use in concurrent conversions.
+ * The dispatch of a generator class to its {@link GeneratorToBEAST} and the {@link Exclusion}
+ * are computed once per class and then cached, where the caches are the only mutable state
+ * and are thread-safe.
+ */
+public final class ConverterRegistry {
+
+    private final List<ValueToBEAST> valueToBEASTList;
+    // use LinkedHashMap to keep inserted ordering
+    private final Map<String, LazyConverter<GeneratorToBEAST>> generatorToBEASTMap;
+    private final Map<SequenceType, DataType> dataTypeMap;
+
+    // the built-in and extension rules to exclude generators and values
+    private final Exclusion exclusion;
+
+    // generator class => its converter, where Optional.empty() means no converter
+    private final ConcurrentMap<Class<?>, Optional<LazyConverter<GeneratorToBEAST>>> generatorDispatch =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The collections are copied, so that the registry is not changed by the caller afterwards.
+     */
+    ConverterRegistry(List<ValueToBEAST> valueToBEASTList,
+                      Map<String, LazyConverter<GeneratorToBEAST>> generatorToBEASTMap,
+                      Map<SequenceType, DataType> dataTypeMap,
+                      Exclusion exclusion) {
+        this.valueToBEASTList = List.copyOf(valueToBEASTList);
+        this.generatorToBEASTMap = Collections.unmodifiableMap(new LinkedHashMap<>(generatorToBEASTMap));
+        this.dataTypeMap = Map.copyOf(dataTypeMap);
+        this.exclusion = exclusion;
+    }
+
+    /**
+     * The converter is only instantiated on first use, see {@link LazyConverter}.
+     * @return  the converter of the generator class, otherwise the last registered converter
+     *          of its super classes or interfaces, or null.
+     */
+    public GeneratorToBEAST getGeneratorToBEAST(Generator generator) {
+        LazyConverter<GeneratorToBEAST> toBEAST = generatorDispatch
+                .computeIfAbsent(generator.getClass(), this::findGeneratorToBEAST).orElse(null);
+        return toBEAST == null ? null : toBEAST.get();
+    }
+
+    private Optional<LazyConverter<GeneratorToBEAST>> findGeneratorToBEAST(Class<?> generatorClass) {
+        LazyConverter<GeneratorToBEAST> toBEAST = generatorToBEASTMap.get(generatorClass.getName());
+
+        if (toBEAST == null) {
+            // else see if there is a compatible to beast, without loading the registered generator classes
+            Set<String> superTypes = getSuperTypeNames(generatorClass);
+            for (Map.Entry<String, LazyConverter<GeneratorToBEAST>> entry : generatorToBEASTMap.entrySet()) {
+                // if *ToBEAST exists
+                if (superTypes.contains(entry.getKey())) {
+                    toBEAST = entry.getValue();
+                }
+            }
+        }
+        return Optional.ofNullable(toBEAST);
+    }
+
+    // the names of all super classes and interfaces
+    private static Set<String> getSuperTypeNames(Class<?> cls) {
+        Set<String> names = new HashSet<>();
+        Deque<Class<?>> toVisit = new ArrayDeque<>();
+        toVisit.add(cls);
+        while (!toVisit.isEmpty()) {
+            Class<?> c = toVisit.poll();
+            if (names.add(c.getName())) {
+                if (c.getSuperclass() != null) toVisit.add(c.getSuperclass());
+                toVisit.addAll(Arrays.asList(c.getInterfaces()));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return  the first {@link ValueToBEAST} matching the value, or null.
+     */
+    public ValueToBEAST getMatchingValueToBEAST(Value value) {
+        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
+            if (possibleToBEAST.match(value)) {
+                return possibleToBEAST;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return  the first {@link ValueToBEAST} matching the raw value, or null.
+     */
+    public ValueToBEAST getValueToBEAST(Object rawValue) {
+        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
+            // if *ToBEAST exists
+            if (possibleToBEAST.match(rawValue)) {
+                return possibleToBEAST;
+            }
+        }
+        return null;
+    }
+
+    public List<ValueToBEAST> getValueToBEASTList() {
+        return valueToBEASTList;
+    }
+
+    public Map<String, LazyConverter<GeneratorToBEAST>> getGeneratorToBEASTMap() {
+        return generatorToBEASTMap;
+    }
+
+    /**
+     * @return  LPhy sequence types {@link SequenceType} maps to BEAST {@link DataType}.
+     */
+    public Map<SequenceType, DataType> getDataTypeMap() {
+        return dataTypeMap;
+    }
+
+    /**
+     * @return  true if the generator is not required to convert, see {@link Exclusion}.
+     */
+    public boolean isExcludedGenerator(Generator generator) {
+        return exclusion.isExcludedGenerator(generator);
+    }
+
+    /**
+     * @return  true if the value is not required to convert, see {@link Exclusion}.
+     */
+    public boolean isExcludedValue(Value value) {
+        return exclusion.isExcludedValue(value);
+    }
+
+    @Override
+    public String toString() {
+        return valueToBEASTList.size() + " ValuesToBEAST = " + valueToBEASTList + "\n" +
+                generatorToBEASTMap.size() + " GeneratorToBEAST = " + generatorToBEASTMap + "\n" +
+                dataTypeMap.size() + " Data Type = " + dataTypeMap + "\n" + exclusion;
+    }
+}
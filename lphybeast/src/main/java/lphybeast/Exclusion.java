@@ -16,48 +16,146 @@ import lphy.graphicalModel.Generator;
 import lphy.graphicalModel.Value;
 import lphy.parser.functions.*;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 
 /**
- * Utils class to exclude {@link lphy.graphicalModel.Value}
+ * The table to exclude {@link lphy.graphicalModel.Value}
  * or {@link lphy.graphicalModel.Generator} to skip the validation
  * so not to throw UnsupportedOperationException
  * in either <code>BEASTContext#valueToBEAST(Value)<code/> or
  * <code>BEASTContext#generatorToBEAST(Value, Generator)<code/>.
+ * The built-in rules are merged with the rules provided by extensions,
+ * and the decision for each class is computed once and then cached,
+ * so that the lookup is O(1) except the conditional rules,
+ * such as IID whose base distribution is DiscretizedGamma.
+ * It is immutable except the thread-safe caches.
  * @author Walter Xie
  */
 public class Exclusion {
 
-    public static boolean isExcludedValue(Value<?> val) {
+    // the generators excluded by their classes, including subclasses
+    static final List<Class<? extends Generator>> EXCLUDED_GENERATORS = List.of(
+            WeightedDirichlet.class, IntegerArray.class,
+            ExpressionNode.class, RandomComposition.class,
+            NTaxaFunction.class, NCharFunction.class,
+            CreateTaxa.class, TaxaFunction.class,
+            lphy.core.functions.NodeCount.class,
+            Species.class, TaxaAgesFromFunction.class,
+            ReadNexus.class, ReadFasta.class,
+            ExtractTrait.class, Unique.class,
+            ARange.class, Range.class,
+            MapFunction.class, MethodCall.class,
+            RangeList.class, ElementsAt.class, Rep.class,
+            MigrationMatrix.class, MigrationCount.class,
+            Length.class, Select.class, SumBoolean.class,
+            DiscretizedGamma.class,
+            // ignore all data types
+            NucleotidesFunction.class, StandardDatatypeFunction.class,
+            BinaryDatatypeFunction.class, //PhasedGenotypeFunction.class,
+            ExpressionNodeWrapper.class );
+
+    // the generators excluded by their classes and a condition on the instance
+    static final Map<Class<? extends Generator>, Predicate<Generator>> CONDITIONAL_GENERATORS = Map.of(
+            IID.class, generator -> ((IID<?>) generator).getBaseDistribution() instanceof DiscretizedGamma );
+
+    // the unconditional rule in the cache
+    private static final List<Predicate<Generator>> ALWAYS = List.of(generator -> true);
+
+    private final List<Class<? extends Generator>> generatorClasses;
+    private final Map<Class<? extends Generator>, List<Predicate<Generator>>> generatorPredicates;
+    private final List<Class<? extends Value>> valueClasses;
+
+    // generator class => the rules to exclude it, where an empty list means never
+    private final ConcurrentMap<Class<?>, List<Predicate<Generator>>> generatorCache = new ConcurrentHashMap<>();
+    // the class of the raw value or the Value => excluded or not
+    private final ConcurrentMap<Class<?>, Boolean> rawValueCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, Boolean> valueCache = new ConcurrentHashMap<>();
+
+    /**
+     * Merge the built-in rules with the rules provided by extensions.
+     * @param extGenerators           the generator classes excluded by extensions.
+     * @param extGeneratorPredicates  the conditional rules of generators provided by extensions.
+     * @param extValues               the {@link Value} classes excluded by extensions.
+     */
+    public Exclusion(Collection<Class<? extends Generator>> extGenerators,
+                     Map<Class<? extends Generator>, List<Predicate<Generator>>> extGeneratorPredicates,
+                     Collection<Class<? extends Value>> extValues) {
+        List<Class<? extends Generator>> generatorClasses = new ArrayList<>(EXCLUDED_GENERATORS);
+        generatorClasses.addAll(extGenerators);
+        this.generatorClasses = List.copyOf(generatorClasses);
+
+        Map<Class<? extends Generator>, List<Predicate<Generator>>> predicates = new LinkedHashMap<>();
+        for (Map.Entry<Class<? extends Generator>, Predicate<Generator>> entry : CONDITIONAL_GENERATORS.entrySet())
+            predicates.computeIfAbsent(entry.getKey(), c -> new ArrayList<>()).add(entry.getValue());
+        for (Map.Entry<Class<? extends Generator>, List<Predicate<Generator>>> entry : extGeneratorPredicates.entrySet())
+            predicates.computeIfAbsent(entry.getKey(), c -> new ArrayList<>()).addAll(entry.getValue());
+        predicates.replaceAll((c, list) -> List.copyOf(list));
+        this.generatorPredicates = Collections.unmodifiableMap(predicates);
+
+        this.valueClasses = List.copyOf(extValues);
+    }
+
+    public boolean isExcludedValue(Value<?> val) {
         Object ob = val.value();
-        return ob instanceof String || ob instanceof String[] || // ignore all String: d = nexus(file="Dengue4.nex");
-                ob instanceof HashMap || ob instanceof TreeMap ||
-                ob instanceof SequenceType || // ignore all data types
+        if (ob != null && rawValueCache.computeIfAbsent(ob.getClass(), Exclusion::isExcludedRawValueClass))
+            return true;
+        return valueCache.computeIfAbsent(val.getClass(), this::isExcludedValueClass);
+    }
+
+    // ignore all String: d = nexus(file="Dengue4.nex");
+    private static boolean isExcludedRawValueClass(Class<?> cls) {
+        return String.class.isAssignableFrom(cls) || String[].class.isAssignableFrom(cls) ||
+                HashMap.class.isAssignableFrom(cls) || TreeMap.class.isAssignableFrom(cls) ||
+                SequenceType.class.isAssignableFrom(cls) || // ignore all data types
                 // exclude the value returned by taxa (and ages) functions
-                ( ob instanceof Taxa && !(ob instanceof Alignment) ) || ob instanceof TimeTree[];
+                ( Taxa.class.isAssignableFrom(cls) && !Alignment.class.isAssignableFrom(cls) ) ||
+                TimeTree[].class.isAssignableFrom(cls);
+    }
+
+    private boolean isExcludedValueClass(Class<?> cls) {
+        for (Class<? extends Value> vCls : valueClasses)
+            if (vCls.isAssignableFrom(cls))
+                return true;
+        return false;
+    }
+
+    public boolean isExcludedGenerator(Generator generator) {
+        List<Predicate<Generator>> rules = generatorCache.computeIfAbsent(generator.getClass(), this::getGeneratorRules);
+        for (Predicate<Generator> rule : rules) {
+            if (rule.test(generator))
+                return true;
+        }
+        return false;
+    }
+
+    private List<Predicate<Generator>> getGeneratorRules(Class<?> cls) {
+        for (Class<? extends Generator> gCls : generatorClasses) {
+            if (gCls.isAssignableFrom(cls))
+                return ALWAYS;
+        }
+        List<Predicate<Generator>> rules = new ArrayList<>();
+        for (Map.Entry<Class<? extends Generator>, List<Predicate<Generator>>> entry : generatorPredicates.entrySet()) {
+            if (entry.getKey().isAssignableFrom(cls))
+                rules.addAll(entry.getValue());
+        }
+        return rules.isEmpty() ? List.of() : List.copyOf(rules);
     }
 
-    public static boolean isExcludedGenerator(Generator generator) {
-
-        return generator instanceof WeightedDirichlet || generator instanceof IntegerArray ||
-                generator instanceof ExpressionNode || generator instanceof RandomComposition ||
-                generator instanceof NTaxaFunction || generator instanceof NCharFunction ||
-                generator instanceof CreateTaxa || generator instanceof TaxaFunction ||
-                generator instanceof lphy.core.functions.NodeCount ||
-                generator instanceof Species || generator instanceof TaxaAgesFromFunction ||
-                generator instanceof ReadNexus || generator instanceof ReadFasta ||
-                generator instanceof ExtractTrait || generator instanceof Unique ||
-                generator instanceof ARange || generator instanceof Range ||
-                generator instanceof MapFunction || generator instanceof MethodCall  ||
-                generator instanceof RangeList || generator instanceof ElementsAt || generator instanceof Rep ||
-                generator instanceof MigrationMatrix || generator instanceof MigrationCount ||
-                generator instanceof Length || generator instanceof Select || generator instanceof SumBoolean ||
-                generator instanceof DiscretizedGamma ||
-                // ignore all data types
-                generator instanceof NucleotidesFunction || generator instanceof StandardDatatypeFunction ||
-                generator instanceof BinaryDatatypeFunction || //generator instanceof PhasedGenotypeFunction ||
-                (generator instanceof IID && ((IID<?>) generator).getBaseDistribution() instanceof DiscretizedGamma) ||
-                generator instanceof ExpressionNodeWrapper;
+    @Override
+    public String toString() {
+        return (generatorClasses.size() - EXCLUDED_GENERATORS.size()) + " extra Generator(s) excluded = " +
+                generatorClasses.subList(EXCLUDED_GENERATORS.size(), generatorClasses.size()) + "\n" +
+                generatorPredicates.size() + " Generator(s) conditionally excluded = " + generatorPredicates.keySet() + "\n" +
+                valueClasses.size() + " extra Value(s) excluded = " + valueClasses;
     }
 }
@@ -0,0 +1,361 @@
+package lphybeast;
+
+import beast.util.BEASTClassLoader;
+import beast.util.PackageManager;
+import lphy.util.LoggerUtils;
+import lphybeast.spi.LPhyBEASTExt;
+
+import java.io.*;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The on-disk index of {@link LPhyBEASTExt} implementations and their converter classes,
+ * so that the classpath and BEAST packages are not scanned by {@link PackageManager#find(Class, boolean)}
+ * every time LPhyBEAST starts.
+ * Every jar is keyed by its path, size and last modified time,
+ * and only the jars which are new or changed since the last run are scanned.
+ * The class folders, such as in development, are always scanned.
+ * A scan only loads the classes listed in META-INF/services/lphybeast.spi.LPhyBEASTExt,
+ * and the class files referring to {@link LPhyBEASTExt} in their bytes, not every class.
+ * The index file is plain text:
+ * <pre>
+ * jar    path    size    lastModified
+ * ext    extClassName    valueToBEAST1,valueToBEAST2,...    generatorToBEAST1=Generator1,generatorToBEAST2=Generator2,...
+ * </pre>
+ * where ext lines belong to the jar line above them, and columns are separated by a tab.
+ * The generator class of every {@link GeneratorToBEAST} is the key to dispatch,
+ * so that the converters can be registered without loading them, see {@link LazyConverter}.
+ */
+class ExtensionIndex {
+
+    public static final String INDEX_FILE_NAME = "lphybeast-ext.index";
+    static final String HEADER = "# LPhyBEAST extension index v2";
+    static final String SEP = "\t";
+    static final String LIST_SEP = ",";
+    static final String KEY_SEP = "=";
+
+    static final String SERVICE_FILE = "META-INF/services/" + LPhyBEASTExt.class.getName();
+    // the internal name in the constant pool of a class implementing LPhyBEASTExt or LPhyBEASTExtImpl
+    private static final byte[] EXT_INTERNAL_NAME =
+            LPhyBEASTExt.class.getName().replace('.', '/').getBytes(StandardCharsets.UTF_8);
+
+    // jar path => the jar and extensions inside
+    private final Map<String, JarEntryIndex> jars = new LinkedHashMap<>();
+    // the number of jars scanned by loadOrScan
+    int scanned;
+
+    /**
+     * An indexed jar or class folder.
+     */
+    static class JarEntryIndex {
+        final String path;
+        final long size;
+        final long lastModified;
+        final List<ExtEntry> extensions = new ArrayList<>();
+
+        JarEntryIndex(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean isUpToDate(File file) {
+            return file.isFile() && file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * An {@link LPhyBEASTExt} implementation and the class names of its converters.
+     */
+    static class ExtEntry {
+        final String className;
+        final List<String> valueToBEASTs;
+        // GeneratorToBEAST class name => Generator class name, in the registration order
+        final Map<String, String> generatorToBEASTs;
+
+        ExtEntry(String className, List<String> valueToBEASTs, Map<String, String> generatorToBEASTs) {
+            this.className = className;
+            this.valueToBEASTs = valueToBEASTs;
+            this.generatorToBEASTs = generatorToBEASTs;
+        }
+
+        /**
+         * Every {@link GeneratorToBEAST} is instantiated once here to get its generator class.
+         */
+        static ExtEntry create(LPhyBEASTExt ext) {
+            Map<String, String> generatorToBEASTs = new LinkedHashMap<>();
+            for (Class<? extends GeneratorToBEAST> c : ext.getGeneratorToBEASTs()) {
+                try {
+                    GeneratorToBEAST<?,?> generatorToBEAST = c.getDeclaredConstructor().newInstance();
+                    generatorToBEASTs.put(c.getName(), generatorToBEAST.getGeneratorClass().getName());
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    LoggerUtils.log.severe("Cannot instantiate the converter " + c.getName() + " : " + e);
+                }
+            }
+            return new ExtEntry(ext.getClass().getName(),
+                    ext.getValuesToBEASTs().stream().map(Class::getName).collect(Collectors.toList()),
+                    generatorToBEASTs);
+        }
+    }
+
+    /**
+     * @return  the index file in the BEAST package user directory.
+     */
+    public static Path getIndexFile() {
+        return Paths.get(PackageManager.getPackageUserDir(), INDEX_FILE_NAME);
+    }
+
+    /**
+     * Load the index, and then rescan the jars which are new or changed,
+     * and save the index if anything is changed.
+     * @param indexFile  the index file, which may not exist.
+     * @return  the index of all jars in the classpath and BEAST packages.
+     */
+    public static ExtensionIndex loadOrScan(Path indexFile) {
+        return loadOrScan(indexFile, getClasspathFiles());
+    }
+
+    /**
+     * @param indexFile  the index file, which may not exist.
+     * @param files      the jars and class folders to index.
+     * @return  the index of given jars and class folders.
+     * @see #loadOrScan(Path)
+     */
+    static ExtensionIndex loadOrScan(Path indexFile, List<File> files) {
+        ExtensionIndex previous = new ExtensionIndex();
+        if (Files.isRegularFile(indexFile)) {
+            try {
+                previous = read(indexFile);
+            } catch (IOException | RuntimeException e) {
+                LoggerUtils.log.warning("Rebuild the extension index, because it cannot be read : " + e.getMessage());
+                previous = new ExtensionIndex();
+            }
+        }
+
+        ExtensionIndex index = new ExtensionIndex();
+        int scanned = 0;
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            JarEntryIndex jar = previous.jars.get(path);
+            if (jar == null || !jar.isUpToDate(file)) {
+                jar = scan(file);
+                if (file.isFile()) scanned++;
+            }
+            index.jars.put(path, jar);
+        }
+        index.scanned = scanned;
+
+        if (scanned > 0 || !index.jars.keySet().equals(previous.jars.keySet())) {
+            System.out.println("Scanned " + scanned + " new or changed jar(s) for LPhyBEAST extensions.");
+            try {
+                index.write(indexFile);
+            } catch (IOException e) {
+                LoggerUtils.log.warning("Cannot save the extension index to " + indexFile + " : " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return  the {@link LPhyBEASTExt} implementations in the order of the classpath.
+     */
+    public List<ExtEntry> getExtensions() {
+        List<ExtEntry> extensions = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (JarEntryIndex jar : jars.values()) {
+            for (ExtEntry ext : jar.extensions) {
+                // the same class in two jars is loaded once
+                if (names.add(ext.className))
+                    extensions.add(ext);
+            }
+        }
+        return extensions;
+    }
+
+    // the classpath and the jars of installed BEAST packages
+    static List<File> getClasspathFiles() {
+        // make the jars of BEAST packages available to BEASTClassLoader, which does not scan classes
+        try {
+            PackageManager.loadExternalJars();
+        } catch (Exception e) {
+            LoggerUtils.log.warning("Cannot load the jars of BEAST packages : " + e.getMessage());
+        }
+
+        Set<File> files = new LinkedHashSet<>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(path);
+            if (file.isDirectory() || (file.isFile() && path.endsWith(".jar")))
+                files.add(file.getAbsoluteFile());
+        }
+        for (String dir : PackageManager.getBeastDirectories()) {
+            File[] packages = new File(dir).listFiles(File::isDirectory);
+            if (packages == null) continue;
+            for (File packageDir : packages) {
+                File[] jars = new File(packageDir, "lib").listFiles((d, name) -> name.endsWith(".jar"));
+                if (jars == null) continue;
+                Arrays.sort(jars);
+                for (File jar : jars)
+                    files.add(jar.getAbsoluteFile());
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    // load the candidate classes in the jar or class folder, and keep the LPhyBEASTExt implementations
+    static JarEntryIndex scan(File file) {
+        JarEntryIndex jar = new JarEntryIndex(file.getAbsolutePath(), file.length(), file.lastModified());
+        // the service providers first, then the other implementations in the order of entries
+        Set<String> classNames = new LinkedHashSet<>();
+        try {
+            if (file.isDirectory()) {
+                Path root = file.toPath();
+                Path serviceFile = root.resolve(SERVICE_FILE);
+                if (Files.isRegularFile(serviceFile)) {
+                    try (InputStream input = Files.newInputStream(serviceFile)) {
+                        classNames.addAll(readServiceFile(input));
+                    }
+                }
+                List<Path> classFiles;
+                try (Stream<Path> paths = Files.walk(root)) {
+                    classFiles = paths.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+                }
+                for (Path p : classFiles) {
+                    if (refersToExt(Files.readAllBytes(p)))
+                        classNames.add(toClassName(root.relativize(p).toString()));
+                }
+            } else {
+                try (JarFile jarFile = new JarFile(file)) {
+                    JarEntry serviceEntry = jarFile.getJarEntry(SERVICE_FILE);
+                    if (serviceEntry != null) {
+                        try (InputStream input = jarFile.getInputStream(serviceEntry)) {
+                            classNames.addAll(readServiceFile(input));
+                        }
+                    }
+                    Enumeration<JarEntry> entries = jarFile.entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        String name = entry.getName();
+                        if (!name.endsWith(".class")) continue;
+                        try (InputStream input = jarFile.getInputStream(entry)) {
+                            if (refersToExt(input.readAllBytes()))
+                                classNames.add(toClassName(name));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LoggerUtils.log.warning("Cannot scan " + file + " : " + e.getMessage());
+            return jar;
+        }
+
+        for (String className : classNames) {
+            if (className.endsWith("module-info") || className.endsWith("package-info"))
+                continue;
+            try {
+                Class<?> cls = BEASTClassLoader.forName(className);
+                if (LPhyBEASTExt.class.isAssignableFrom(cls) && !cls.isInterface() &&
+                        !Modifier.isAbstract(cls.getModifiers())) {
+                    LPhyBEASTExt ext = (LPhyBEASTExt) cls.getDeclaredConstructor().newInstance();
+                    jar.extensions.add(ExtEntry.create(ext));
+                }
+            } catch (Throwable e) {
+                // the same as PackageManager, skip the classes which cannot be loaded
+            }
+        }
+        return jar;
+    }
+
+    // the provider class names, one per line, where # starts a comment
+    private static List<String> readServiceFile(InputStream input) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (!line.isEmpty())
+                classNames.add(line);
+        }
+        return classNames;
+    }
+
+    // a cheap pre-filter before loading, which may also match the classes only using LPhyBEASTExt
+    static boolean refersToExt(byte[] classBytes) {
+        for (int i = 0; i <= classBytes.length - EXT_INTERNAL_NAME.length; i++) {
+            int j = 0;
+            while (j < EXT_INTERNAL_NAME.length && classBytes[i + j] == EXT_INTERNAL_NAME[j])
+                j++;
+            if (j == EXT_INTERNAL_NAME.length)
+                return true;
+        }
+        return false;
+    }
+
+    private static String toClassName(String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length())
+                .replace('/', '.').replace('\\', '.');
+    }
+
+    static ExtensionIndex read(Path indexFile) throws IOException {
+        ExtensionIndex index = new ExtensionIndex();
+        List<String> lines = Files.readAllLines(indexFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !HEADER.equals(lines.get(0)))
+            throw new IOException("the index was written by another version");
+        JarEntryIndex jar = null;
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] cols = line.split(SEP, -1);
+            if ("jar".equals(cols[0])) {
+                jar = new JarEntryIndex(cols[1], Long.parseLong(cols[2]), Long.parseLong(cols[3]));
+                index.jars.put(jar.path, jar);
+            } else if ("ext".equals(cols[0]) && jar != null) {
+                Map<String, String> generatorToBEASTs = new LinkedHashMap<>();
+                for (String pair : splitList(cols[3])) {
+                    String[] names = pair.split(KEY_SEP);
+                    generatorToBEASTs.put(names[0], names[1]);
+                }
+                jar.extensions.add(new ExtEntry(cols[1], splitList(cols[2]), generatorToBEASTs));
+            } else {
+                throw new IOException("Invalid line in " + indexFile + " : " + line);
+            }
+        }
+        return index;
+    }
+
+    void write(Path indexFile) throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        // write to a temp file first, so that the concurrent runs never read a half written index
+        Path tmp = Files.createTempFile(indexFile.getParent(), INDEX_FILE_NAME, ".tmp");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+            writer.println(HEADER);
+            for (JarEntryIndex jar : jars.values()) {
+                writer.println(String.join(SEP, "jar", jar.path, Long.toString(jar.size), Long.toString(jar.lastModified)));
+                for (ExtEntry ext : jar.extensions) {
+                    String generatorToBEASTs = ext.generatorToBEASTs.entrySet().stream()
+                            .map(e -> e.getKey() + KEY_SEP + e.getValue()).collect(Collectors.joining(LIST_SEP));
+                    writer.println(String.join(SEP, "ext", ext.className,
+                            String.join(LIST_SEP, ext.valueToBEASTs), generatorToBEASTs));
+                }
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static List<String> splitList(String col) {
+        if (col.isEmpty()) return new ArrayList<>();
+        return new ArrayList<>(Arrays.asList(col.split(LIST_SEP)));
+    }
+
+}
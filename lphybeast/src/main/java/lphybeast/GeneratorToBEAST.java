@@ -1,9 +1,14 @@
 package lphybeast;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.Parameter;
+import beast.core.parameter.RealParameter;
 import lphy.graphicalModel.Generator;
+import lphy.graphicalModel.Value;
 
 import java.util.List;
+import java.util.Map;
 
 public interface GeneratorToBEAST<T extends Generator,S extends BEASTInterface> {
 
@@ -42,6 +47,21 @@ public interface GeneratorToBEAST<T extends Generator,S extends BEASTInterface>
         // default do nothing
     }
 
+    /**
+     * provides a hook for the parameter type inference pre-pass, which runs before any value is converted,
+     * so that the inputs of this generator are created as the BEAST parameter types this converter requires,
+     * rather than coerced afterwards by {@link BEASTContext#getAsRealParameter(Value)}
+     * or {@link BEASTContext#getAsIntegerParameter(Value)}.
+     * @param generator the generator
+     * @param context the BEASTContext object, where no value has been converted yet
+     * @return the map of input values of this generator to the required BEAST parameter types,
+     *         either {@link RealParameter} or {@link IntegerParameter}.
+     */
+    default Map<Value, Class<? extends Parameter>> getParameterTypes(T generator, BEASTContext context) {
+        // default no requirement
+        return Map.of();
+    }
+
     /**
      * The class of value that can be converted to BEAST.
      * @return
@@ -1,22 +1,35 @@
 package lphybeast;
 
+import beast.app.BeastMCMC;
+import beast.core.Logger;
+import beast.core.MCMC;
 import lphy.core.*;
 import lphy.graphicalModel.RandomValueLogger;
 import lphy.parser.REPL;
 import lphy.util.IOUtils;
 import lphy.util.LoggerUtils;
+import lphybeast.jfr.ConversionRecording;
+import lphybeast.jfr.ParseEvent;
+import lphybeast.jfr.SampleEvent;
+import lphybeast.jfr.XMLEvent;
+import lphybeast.tobeast.CostEstimator;
+import lphybeast.tobeast.OperatorCalibration;
+import org.xml.sax.SAXException;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 
 @Command(name = "lphybeast", footer = "Copyright(c) 2020",
         description = "LPhyBEAST takes an LPhy model specification and some data, " +
@@ -54,9 +67,70 @@ public class LPhyBEAST implements Callable<Integer> {
     @Option(names = {"-b", "--preBurnin"}, defaultValue = "0", description = "define the number of burn in samples taken before entering the main loop of MCMC")
     int preBurnin;
 
+    @Option(names = {"--run"}, description = "run the MCMC in-process after the conversion, " +
+            "which skips writing and parsing the XML. The XML is only written as a record if '-o' is given.")
+    boolean run;
+    @Option(names = {"--seed"}, description = "the seed of the LPhy simulation and BEAST Randomizer in '--run' mode. " +
+            "Given replicates, it is the master seed, where the simulations are reproducible given any workers, " +
+            "but the chains are only reproducible given one worker.")
+    Long seed;
+    @Option(names = {"--overwrite"}, description = "overwrite the existing log files in '--run' mode.")
+    boolean overwrite;
+    @Option(names = {"--stop-ess"}, defaultValue = "0", description = "stop the MCMC early when the ESS of " +
+            "the posterior, likelihood, prior and every scalar real parameter is at least this value, " +
+            "where the chain length becomes the upper limit.")
+    double stopESS;
+    @Option(names = {"--stop-time"}, defaultValue = "0", description = "stop the MCMC early when " +
+            "the wall-clock time (minutes) is over this value.")
+    double stopTime;
+    @Option(names = {"--threads"}, defaultValue = "0", description = "the total number of threads shared by " +
+            "tree likelihoods in proportion to the cost of partitions, where small partitions use the plain TreeLikelihood. " +
+            "The same number should be given to BEAST by '-threads' to run the XML.")
+    int threads;
+    @Option(names = {"--partition-threads"}, description = "evaluate the likelihoods of partitions in parallel, " +
+            "sharing the '--threads' budget with the threads inside each likelihood.")
+    boolean partitionThreads;
+    @Option(names = {"--wd-parameter"}, description = "convert a WeightedDirichlet value (e.g. relative rates of partitions) " +
+            "into one multi-dimensional parameter with a weighted delta exchange, instead of a scalar parameter per element.")
+    boolean wdParameter;
+    @Option(names = {"--calibrate"}, description = "run a short pilot chain in-process to calibrate " +
+            "the operator weights and starting tuning values, which are then used in XML or '--run' mode.")
+    boolean calibrate;
+    @Option(names = {"--estimate-cost"}, description = "report the cost of tree likelihoods, state dimension, " +
+            "operators, and the wall time of the chain projected from a quick microbenchmark.")
+    boolean estimateCost;
+    @Option(names = {"--time-budget"}, defaultValue = "0", description = "the wall-clock time (minutes) of " +
+            "each chain, whose chain length is calibrated from the cost of an MCMC iteration on this machine. " +
+            "If '-l' is also given, then it is the upper limit.")
+    double timeBudget;
+    @Option(names = {"--target-samples"}, defaultValue = "2000", description = "the number of samples in the log, " +
+            "which defines logEvery = chainLength / samples.")
+    int targetSamples;
+
+    @Option(names = {"--async-log"}, description = "all file loggers (trace, trees, and extra loggers such as Mascot) " +
+            "write on a background thread through a buffer bounded by bytes, which removes the I/O from the MCMC thread.")
+    boolean asyncLog;
+    @Option(names = {"--binary-trees"}, description = "log the trees in a compact binary format (*.btrees) " +
+            "instead of NEXUS, which can be converted back by lphybeast.tobeast.loggers.BinaryTreeToNexus. " +
+            "It cannot be resumed, so BEAST '-resume' logs the later trees in NEXUS to *.resume.trees.")
+    boolean binaryTrees;
+    @Option(names = {"--batch-priors"}, description = "evaluate the plain priors in one BatchPrior, " +
+            "which only recomputes the changed priors, if there are at least 10 of them.")
+    boolean batchPriors;
+    @Option(names = {"--jfr"}, description = "record the conversion by Java Flight Recorder with low overhead, " +
+            "including the LPhyBEAST events (parsing, sampling, every converter call, posterior, operators and XML), " +
+            "which is written to a .jfr file next to the XML.")
+    boolean jfr;
+
     //well calibrated study
     @Option(names = {"-r", "--replicates"}, defaultValue = "1", description = "the number of replicates (XML) given one LPhy script, " +
             "usually to create simulations for well-calibrated study.") int rep;
+    @Option(names = {"--workers"}, defaultValue = "0", description = "the number of workers to run replicates " +
+            "in parallel in '--run' mode, default to the number of cores.")
+    int workers;
+    @Option(names = {"--worker-memory"}, defaultValue = "0", description = "the memory budget (MB) of each worker, " +
+            "which bounds the number of workers by the max heap size of this JVM.")
+    long workerMemory;
 
 
     public static void main(String[] args) {
@@ -104,53 +178,171 @@ public class LPhyBEAST implements Callable<Integer> {
             outPath = Paths.get(IOUtils.getUserDir().toString(), infileNoExt + ".xml");
         }
 
+        if (overwrite)
+            Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+        // ThreadedTreeLikelihood is bounded by the thread pool of BEAST
+        if (run && threads > 1) {
+            BeastMCMC.m_nThreads = threads;
+            BeastMCMC.g_exec = Executors.newFixedThreadPool(threads);
+        }
+
+        ConversionRecording recording = jfr ? startRecording(outPath) : null;
+        try {
+            convertAll(inPath, outPath);
+        } finally {
+            if (recording != null)
+                System.out.println("Write JFR recording : " + recording.stop().toAbsolutePath());
+        }
+
+        return 0;
+    }
+
+    private void convertAll(Path inPath, Path outPath) throws CommandLine.PicocliException {
         // add rep after file stem
-        if (rep > 1) {
+        if (rep > 1 && run) {
+            // simulate, convert and run every replicate inside this JVM
+            runReplicates(inPath, outPath);
+        } else if (rep > 1) {
             final String outPathNoExt = outPath.toString().substring(0, outPath.toString().lastIndexOf("."));
             // well-calibrated validations
             for (int i = 0; i < rep; i++) {
                 // update outPath to add i
                 outPath = Paths.get(outPathNoExt + "_" + i + ".xml");
                 // need new reader
-                createXML(inPath, outPath, chainLength, preBurnin);
+                convert(inPath, outPath);
             }
         } else // normal output
-            createXML(inPath, outPath, chainLength, preBurnin);
+            convert(inPath, outPath);
+    }
 
-        return 0;
+    // the recording is next to the XML, and shared by all replicates
+    private ConversionRecording startRecording(Path outPath) throws CommandLine.PicocliException {
+        String path = outPath.toString();
+        Path jfrPath = Paths.get(path.substring(0, path.lastIndexOf(".")) + ".jfr");
+        try {
+            return ConversionRecording.start(jfrPath);
+        } catch (IOException | ParseException e) {
+            throw new CommandLine.PicocliException("Fail to start JFR recording to " + jfrPath, e);
+        }
     }
 
-    // the relative path given in readNexus in a script always refers to user.dir
-    // fileNameStem for both outfile and XML loggers
-    private void createXML(Path inPath, Path outPath, long chainLength, int preBurnin) throws CommandLine.PicocliException {
+    private void convert(Path inPath, Path outPath) throws CommandLine.PicocliException {
+        if (run)
+            // only write XML as a record if -o is given
+            runMCMC(inPath, outPath, outfile != null, chainLength, preBurnin, seed);
+        else
+            createXML(inPath, outPath, chainLength, preBurnin);
+    }
 
-        // need to call reader each loop
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(inPath.toFile()));
+    // each replicate has its own output folder next to outPath
+    private void runReplicates(Path inPath, Path outPath) throws CommandLine.PicocliException {
+        final String fileName = outPath.getFileName().toString();
+        final String fileStem = fileName.substring(0, fileName.lastIndexOf("."));
+        final long masterSeed = seed != null ? seed : System.currentTimeMillis();
 
+        ReplicateRunner runner = new ReplicateRunner(rep, workers, workerMemory * 1024 * 1024, masterSeed);
+        int failed = runner.run(outPath.toAbsolutePath().getParent(), fileStem, (i, repSeed, outDir) ->
+            runMCMC(inPath, outDir.resolve(fileStem + "_" + i + ".xml"), outfile != null,
+                    chainLength, preBurnin, repSeed) );
+
+        if (failed > 0)
+            throw new CommandLine.PicocliException(failed + " replicates failed, master seed = " + masterSeed);
+    }
+
+    // need to call reader each loop
+    private BufferedReader getReader(Path inPath) throws CommandLine.PicocliException {
+        try {
+            return new BufferedReader(new FileReader(inPath.toFile()));
         } catch (FileNotFoundException e) {
             throw new CommandLine.PicocliException("Fail to read LPhy scripts from " +
                     inPath.toString() + ", user.dir = " + System.getProperty(IOUtils.USER_DIR), e);
         }
+    }
+
+    // the relative path given in readNexus in a script always refers to user.dir
+    // fileNameStem for both outfile and XML loggers
+    private void createXML(Path inPath, Path outPath, long chainLength, int preBurnin) throws CommandLine.PicocliException {
+
+        BufferedReader reader = getReader(inPath);
         String path = outPath.toString();
         String pathNoExt = path.substring(0, path.lastIndexOf("."));
         String xml = toBEASTXML(Objects.requireNonNull(reader), pathNoExt, chainLength, preBurnin);
 
+        writeXML(xml, outPath);
+
+        System.out.println("\nInput LPhy : " + inPath.toAbsolutePath());
+        System.out.println("Create BEAST 2 XML : " + outPath.toAbsolutePath());
+    }
+
+    private void writeXML(String xml, Path outPath) throws CommandLine.PicocliException {
+        XMLEvent event = new XMLEvent();
+        event.begin();
         try {
             PrintWriter writer = new PrintWriter(new FileWriter(Objects.requireNonNull(outPath).toFile()));
             writer.println(xml);
             writer.flush();
             writer.close();
+            event.operation = "write";
+            event.path = outPath.toString();
+            event.length = xml.length();
+            event.commit();
         } catch (IOException e) {
             throw new CommandLine.PicocliException("Fail to write XML to " +
-                    outfile.toString(), e);
+                    outPath.toString(), e);
         }
+    }
+
+    /**
+     * Build the MCMC object graph and run it in-process, which skips
+     * the XML serialisation, parsing and re-instantiation in BEAST.
+     * The loggers keep the folder of outPath, so logs are written beside the XML.
+     * @param writeXML  if true, write XML as a record of the analysis.
+     * @param seed      the seed of the LPhy simulation and BEAST Randomizer, if null, then not to set it.
+     */
+    private void runMCMC(Path inPath, Path outPath, boolean writeXML, long chainLength,
+                         int preBurnin, Long seed) throws CommandLine.PicocliException {
+
+        String path = outPath.toString();
+        String pathNoExt = path.substring(0, path.lastIndexOf("."));
+
+        // the simulation of replicates in parallel is serialised and seeded, only the chains run in parallel
+        MCMC mcmc = ReplicateRunner.simulate(seed, () -> {
+            if (seed != null)
+                System.out.println("Set the seed of LPhy and Randomizer to " + seed);
+            BEASTContext context = createContext(Objects.requireNonNull(getReader(inPath)), pathNoExt);
+            // the same file stem as toBEASTXML, so that the XML has no directories of this machine
+            String fileStem = pathNoExt.substring(pathNoExt.lastIndexOf(File.separator) + 1);
+            MCMC m = context.createMCMC(chainLength, fileStem, preBurnin);
+
+            prepare(context, m, chainLength);
+
+            if (writeXML) {
+                // not deduplicated, which would rewire the MCMC going to run
+                writeXML(context.toXML(m, false), outPath);
+                System.out.println("Create BEAST 2 XML as a record : " + outPath.toAbsolutePath());
+            }
+            return m;
+        });
+        setLogDirectory(mcmc, outPath.toAbsolutePath().getParent());
+        mcmc.setStateFile(pathNoExt + ".xml.state", false);
 
         System.out.println("\nInput LPhy : " + inPath.toAbsolutePath());
-        System.out.println("Create BEAST 2 XML : " + outPath.toAbsolutePath());
+        System.out.println("Run MCMC in-process, logs : " + pathNoExt + ".*");
+        try {
+            BEASTContext.runMCMC(mcmc);
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            throw new CommandLine.PicocliException("Fail to run MCMC from " + inPath, e);
+        }
     }
 
+    // resolve the relative log files against the directory, after the XML is written
+    private void setLogDirectory(MCMC mcmc, Path dir) {
+        for (Logger logger : mcmc.loggersInput.get()) {
+            String fileName = logger.fileNameInput.get();
+            if (fileName != null && !Paths.get(fileName).isAbsolute())
+                logger.setInputValue("fileName", dir.resolve(fileName).toString());
+        }
+    }
 
     /**
      * Alternative method to give LPhy script (e.g. from String), not only from a file.
@@ -165,10 +357,73 @@ public class LPhyBEAST implements Callable<Integer> {
      * @throws IOException
      */
     private String toBEASTXML(BufferedReader reader, String filePathNoExt, long chainLength, int preBurnin) throws CommandLine.PicocliException {
+
+        BEASTContext context = createContext(reader, filePathNoExt);
+
+        //*** Write BEAST 2 XML ***//
+        // remove any dir in filePathNoExt here
+        if (filePathNoExt.contains(File.separator))
+            filePathNoExt = filePathNoExt.substring(filePathNoExt.lastIndexOf(File.separator)+1);
+        // filePathNoExt here is file stem, which will be used in XML log file names.
+        // Cannot handle any directories from other machines.
+        if (!calibrate && !estimateCost && timeBudget <= 0)
+            return context.toBEASTXML(filePathNoExt, chainLength, preBurnin);
+
+        MCMC mcmc = context.createMCMC(chainLength, filePathNoExt, preBurnin);
+        prepare(context, mcmc, chainLength);
+        return context.toXML(mcmc);
+    }
+
+    /**
+     * Calibrate the operators, fit the chain length to the time budget,
+     * and then estimate the cost, if requested, before the MCMC is written to XML or run.
+     */
+    private void prepare(BEASTContext context, MCMC mcmc, long chainLength) throws CommandLine.PicocliException {
+        // tune the operators before the main chain
+        if (calibrate)
+            calibrate(mcmc, chainLength);
+
+        CostEstimator costEstimator = new CostEstimator(mcmc);
+        if (timeBudget > 0) {
+            long fitted = costEstimator.getChainLength(timeBudget * 60, context.getNumOfSamples());
+            // -l is the upper limit
+            chainLength = chainLength > 0 ? Math.min(chainLength, fitted) : fitted;
+            context.setChainLength(mcmc, chainLength);
+            System.out.println("Fit the chain length " + chainLength + " to the time budget " +
+                    timeBudget + " minutes.");
+        }
+        if (estimateCost)
+            costEstimator.report(chainLength, System.out);
+    }
+
+    /**
+     * Run a pilot chain to calibrate the operator weights and tuning values.
+     * @see OperatorCalibration
+     */
+    private void calibrate(MCMC mcmc, long chainLength) throws CommandLine.PicocliException {
+        try {
+            new OperatorCalibration(mcmc).calibrate(OperatorCalibration.getPilotLength(chainLength));
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            throw new CommandLine.PicocliException("Fail to run the pilot chain for calibration", e);
+        }
+    }
+
+    /**
+     * Parse LPhy script, sample the model once and log the true values,
+     * and then register the parser in a new {@link BEASTContext}.
+     * @param reader
+     * @param filePathNoExt  the path to log true values
+     * @return  the BEASTContext before any conversion
+     */
+    private BEASTContext createContext(BufferedReader reader, String filePathNoExt) throws CommandLine.PicocliException {
         //*** Parse LPhy file ***//
         LPhyParser parser = new REPL();
+        ParseEvent parseEvent = new ParseEvent();
+        parseEvent.begin();
         try {
             parser.source(reader);
+            parseEvent.script = filePathNoExt;
+            parseEvent.commit();
         } catch (IOException e) {
             throw new CommandLine.PicocliException("Cannot parse LPhy scripts in " +
                     filePathNoExt + ".lphy", e);
@@ -183,20 +438,25 @@ public class LPhyBEAST implements Callable<Integer> {
         loggers.add(new VarFileLogger(filePathNoExtTrueVaule, true, true));
         loggers.add(new TreeFileLogger(filePathNoExtTrueVaule));
 
+        SampleEvent sampleEvent = new SampleEvent();
+        sampleEvent.begin();
         GraphicalLPhyParser gparser = new GraphicalLPhyParser(parser);
         Sampler sampler = new Sampler(gparser);
         sampler.sample(1, loggers);
+        sampleEvent.script = filePathNoExt;
+        sampleEvent.commit();
 
         // register parser
         BEASTContext context = new BEASTContext(parser);
-
-        //*** Write BEAST 2 XML ***//
-        // remove any dir in filePathNoExt here
-        if (filePathNoExt.contains(File.separator))
-            filePathNoExt = filePathNoExt.substring(filePathNoExt.lastIndexOf(File.separator)+1);
-        // filePathNoExt here is file stem, which will be used in XML log file names.
-        // Cannot handle any directories from other machines.
-        return context.toBEASTXML(filePathNoExt, chainLength, preBurnin);
+        context.setEarlyStopping(stopESS, stopTime * 60);
+        context.setThreadBudget(threads);
+        context.setPartitionThreading(partitionThreads);
+        context.setWeightedDirichletParameter(wdParameter);
+        context.setAsyncLogging(asyncLog);
+        context.setBinaryTrees(binaryTrees);
+        context.setBatchPriors(batchPriors);
+        context.setNumOfSamples(targetSamples);
+        return context;
     }
 
     /**
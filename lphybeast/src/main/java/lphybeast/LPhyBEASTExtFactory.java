@@ -1,6 +1,7 @@
 package lphybeast;
 
 import beast.evolution.datatype.DataType;
+import beast.util.BEASTClassLoader;
 import beast.util.PackageManager;
 import jebl.evolution.sequences.SequenceType;
 import lphy.graphicalModel.Generator;
@@ -10,7 +11,7 @@ import lphybeast.spi.LPhyBEASTExt;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * The implementation to load LPhyBEAST extensions using {@link ServiceLoader}.
@@ -41,27 +42,24 @@ public class LPhyBEASTExtFactory {
 
     //*** registry ***//
 
+    // the immutable snapshot shared by all BEASTContext
+    private ConverterRegistry registry;
+
+    // only used while registering extensions
+    private List<ValueToBEAST> valueToBEASTList;
+    private Map<String, LazyConverter<GeneratorToBEAST>> generatorToBEASTMap;
+    private Map<SequenceType, DataType> dataTypeMap;
+    private List<Class<? extends Generator>> excludedGeneratorClasses;
+    private List<Class<? extends Value>> excludedValueClasses;
+    private Map<Class<? extends Generator>, List<Predicate<Generator>>> excludedGeneratorPredicates;
+
     /**
-     * {@link ValueToBEAST}
-     */
-    public List<ValueToBEAST> valueToBEASTList;
-    /**
-     * Use LinkedHashMap to keep inserted ordering, so the first matching converter is used.
-     * @see  GeneratorToBEAST
-     */
-    public Map<Class, GeneratorToBEAST> generatorToBEASTMap;
-    /**
-     * LPhy sequence types {@link SequenceType} maps to BEAST {@link DataType}
-     */
-    public Map<SequenceType, DataType> dataTypeMap;
-    /**
-     * {@link Generator}
-     */
-    public List<Class<? extends Generator>> excludedGeneratorClasses;
-    /**
-     * {@link Value}
+     * @return  the immutable snapshot of registered converters, data types and exclusions,
+     *          which is safe to share between concurrent conversions.
      */
-    public List<Class<? extends Value>> excludedValueClasses;
+    public ConverterRegistry getRegistry() {
+        return registry;
+    }
 
     /**
      * for creating doc only.
@@ -83,74 +81,102 @@ public class LPhyBEASTExtFactory {
     }*/
 
     /**
-     * Use {@link PackageManager} to load the container classes from LPhyBEAST extensions,
-     * which include all extended classes.
+     * Load the container classes from LPhyBEAST extensions, which include all extended classes.
+     * The container classes are found from {@link ExtensionIndex}, which only rescans the new or changed jars,
+     * and {@link PackageManager} is used if the index cannot find any.
      * @return  the list of container classes (one per extension).
      */
     public List<LPhyBEASTExt> getExtClasses() {
-
-        List<Class<?>> classList = PackageManager.find(LPhyBEASTExt.class, false);
-
         List<LPhyBEASTExt> extensionList = new ArrayList<>();
-        for (Class<?> cls : classList) {
-            // https://docs.oracle.com/javase/9/docs/api/java/lang/Class.html#newInstance--
-            try {
-                Object obj = cls.getDeclaredConstructor().newInstance();
-                extensionList.add((LPhyBEASTExt) obj);
-            } catch (InvocationTargetException | InstantiationException |
-                    IllegalAccessException | NoSuchMethodException e) {
-                // do nothing
-            }
-//        catch (Throwable e) { e.printStackTrace(); }
+        for (ExtensionIndex.ExtEntry entry : getExtEntries()) {
+            LPhyBEASTExt ext = newExtension(entry.className);
+            if (ext != null)
+                extensionList.add(ext);
         }
         return extensionList;
     }
 
+    // the extensions and the class names of their converters
+    private List<ExtensionIndex.ExtEntry> getExtEntries() {
+        ExtensionIndex index = ExtensionIndex.loadOrScan(ExtensionIndex.getIndexFile());
+        List<ExtensionIndex.ExtEntry> entries = index.getExtensions();
+        if (entries.isEmpty()) {
+            for (Class<?> cls : PackageManager.find(LPhyBEASTExt.class, false)) {
+                LPhyBEASTExt ext = newExtension(cls.getName());
+                if (ext != null)
+                    entries.add(ExtensionIndex.ExtEntry.create(ext));
+            }
+        }
+        return entries;
+    }
+
+    private LPhyBEASTExt newExtension(String className) {
+        // https://docs.oracle.com/javase/9/docs/api/java/lang/Class.html#newInstance--
+        try {
+            return (LPhyBEASTExt) BEASTClassLoader.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | InvocationTargetException | InstantiationException |
+                IllegalAccessException | NoSuchMethodException e) {
+            LoggerUtils.log.warning("Cannot load the extension " + className + " : " + e);
+            return null;
+        }
+    }
+
 
 //    private void registerExtensions(ServiceLoader<LPhyBEASTExt> loader, String clsName) {
     private void registerExtensions(String clsName) {
         valueToBEASTList = new ArrayList<>();
         generatorToBEASTMap = new LinkedHashMap<>();
-        dataTypeMap = new ConcurrentHashMap<>();
+        dataTypeMap = new LinkedHashMap<>();
 
         excludedGeneratorClasses = new ArrayList<>();
         excludedValueClasses = new ArrayList<>();
+        excludedGeneratorPredicates = new LinkedHashMap<>();
 
         try {
 //            Iterator<LPhyBEASTExt> extensions = loader.iterator();
 //            while (extensions.hasNext()) { // TODO validation if add same name
 
-            for (LPhyBEASTExt ext : getExtClasses()) {
+            for (ExtensionIndex.ExtEntry entry : getExtEntries()) {
                 //*** LPhyBEASTExtImpl must have a public no-args constructor ***//
 //                LPhyBEASTExt ext = extensions.next();
                 // clsName == null then register all
-                if (clsName == null || ext.getClass().getName().equalsIgnoreCase(clsName)) {
-                    System.out.println("Registering extension from " + ext.getClass().getName());
+                if (clsName == null || entry.className.equalsIgnoreCase(clsName)) {
+                    LPhyBEASTExt ext = newExtension(entry.className);
+                    if (ext == null) continue;
+                    System.out.println("Registering extension from " + entry.className);
 
                     final List<Class<? extends ValueToBEAST>> valuesToBEASTs = ext.getValuesToBEASTs();
-                    final List<Class<? extends GeneratorToBEAST>> generatorToBEASTs = ext.getGeneratorToBEASTs();
                     final Map<SequenceType, DataType> dataTypeMap = ext.getDataTypeMap();
 
                     registerValueToBEAST(valuesToBEASTs);
-                    registerGeneratorToBEAST(generatorToBEASTs);
+                    // GeneratorToBEAST is registered by name, and only loaded on first use
+                    registerGeneratorToBEAST(entry.generatorToBEASTs);
                     registerDataTypes(dataTypeMap);
 
                     excludedGeneratorClasses.addAll(ext.getExcludedGenerator());
                     excludedValueClasses.addAll(ext.getExcludedValue());
+                    for (Map.Entry<Class<? extends Generator>, Predicate<Generator>> predicate :
+                            ext.getExcludedGeneratorPredicates().entrySet())
+                        excludedGeneratorPredicates.computeIfAbsent(predicate.getKey(), c -> new ArrayList<>())
+                                .add(predicate.getValue());
                 }
             }
 
-            System.out.println(valueToBEASTList.size() + " ValuesToBEAST = " + valueToBEASTList);
-            System.out.println(generatorToBEASTMap.size() + " GeneratorToBEAST = " + generatorToBEASTMap);
-            System.out.println(dataTypeMap.size() + " Data Type = " + dataTypeMap);
-            System.out.println(excludedGeneratorClasses.size() + " extra Generator(s) excluded = " + excludedGeneratorClasses);
-            System.out.println(excludedValueClasses.size() + " extra Value(s) excluded = " + excludedValueClasses);
-
         } catch (ServiceConfigurationError serviceError) {
             System.err.println(serviceError);
             serviceError.printStackTrace();
         }
 
+        // freeze the registry
+        registry = new ConverterRegistry(valueToBEASTList, generatorToBEASTMap, dataTypeMap,
+                new Exclusion(excludedGeneratorClasses, excludedGeneratorPredicates, excludedValueClasses));
+        valueToBEASTList = null;
+        generatorToBEASTMap = null;
+        dataTypeMap = null;
+        excludedGeneratorClasses = null;
+        excludedValueClasses = null;
+        excludedGeneratorPredicates = null;
+        System.out.println(registry);
     }
 
     private void registerValueToBEAST(final List<Class<? extends ValueToBEAST>> valuesToBEASTs) {
@@ -167,17 +193,15 @@ public class LPhyBEASTExtFactory {
         }
     }
 
-    private void registerGeneratorToBEAST(final List<Class<? extends GeneratorToBEAST>> generatorToBEASTs) {
-        for (Class<? extends GeneratorToBEAST> c : generatorToBEASTs) {
-            try {
-                // https://docs.oracle.com/javase/9/docs/api/java/lang/Class.html#newInstance--
-                GeneratorToBEAST<?,?> generatorToBEAST = (GeneratorToBEAST<?,?>) c.getDeclaredConstructor().newInstance();
-                if (this.generatorToBEASTMap.containsKey(generatorToBEAST))
-                    LoggerUtils.log.severe(generatorToBEAST + " exists in the generatorToBEASTMap !");
-                this.generatorToBEASTMap.put(generatorToBEAST.getGeneratorClass(), generatorToBEAST);
-            } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-                e.printStackTrace();
-            }
+    /**
+     * @param generatorToBEASTs  the class name of {@link GeneratorToBEAST} maps to the class name of its generator.
+     */
+    private void registerGeneratorToBEAST(final Map<String, String> generatorToBEASTs) {
+        for (Map.Entry<String, String> entry : generatorToBEASTs.entrySet()) {
+            String generatorClassName = entry.getValue();
+            if (this.generatorToBEASTMap.containsKey(generatorClassName))
+                LoggerUtils.log.severe(generatorClassName + " exists in the generatorToBEASTMap !");
+            this.generatorToBEASTMap.put(generatorClassName, new LazyConverter<>(entry.getKey()));
         }
     }
 
@@ -0,0 +1,56 @@
+package lphybeast;
+
+import beast.util.BEASTClassLoader;
+import lphy.util.LoggerUtils;
+
+/**
+ * The converter registered by its class name, which is only loaded and instantiated on first use,
+ * so that the BEAST classes referred by the converter, e.g. from SA or MM packages,
+ * are not loaded unless the model requires them.
+ * @param <T>  {@link GeneratorToBEAST} or {@link ValueToBEAST}
+ */
+public final class LazyConverter<T> {
+
+    private final String className;
+    private volatile T converter;
+    private volatile boolean failed = false;
+
+    /**
+     * @param className  the full class name of the converter, which requires a public no-args constructor.
+     */
+    public LazyConverter(String className) {
+        this.className = className;
+    }
+
+    /**
+     * @return  the converter, or null if it cannot be instantiated.
+     */
+    public T get() {
+        if (converter == null && !failed) {
+            synchronized (this) {
+                if (converter == null && !failed) {
+                    try {
+                        converter = (T) BEASTClassLoader.forName(className).getDeclaredConstructor().newInstance();
+                    } catch (ReflectiveOperationException | LinkageError e) {
+                        failed = true;
+                        LoggerUtils.log.severe("Cannot instantiate the converter " + className + " : " + e);
+                    }
+                }
+            }
+        }
+        return converter;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public boolean isLoaded() {
+        return converter != null;
+    }
+
+    @Override
+    public String toString() {
+        return className;
+    }
+}
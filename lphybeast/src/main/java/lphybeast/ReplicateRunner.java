@@ -0,0 +1,156 @@
+package lphybeast;
+
+import beast.util.Randomizer;
+import lphy.util.LoggerUtils;
+import lphy.util.RandomUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * The bounded worker pool to simulate, convert and run the MCMC of every replicate
+ * inside one JVM, usually for the well-calibrated simulation study.
+ * Each replicate has its own output directory and its own seed from the master seed.
+ * The random number generators of LPhy and BEAST {@link Randomizer} are JVM-wide singletons,
+ * and the one of LPhy is not thread-safe, therefore the simulation of every replicate
+ * (seed, parse, sample and convert) runs in {@link #simulate(Long, Supplier)} under one JVM-wide lock,
+ * which makes the simulated data reproducible given any number of workers.
+ * Only the chains run in parallel, which share the synchronized stream of {@link Randomizer},
+ * so the chains are only reproducible when there is one worker.
+ */
+public class ReplicateRunner {
+
+    /**
+     * The job of one replicate.
+     */
+    @FunctionalInterface
+    public interface Replicate {
+        /**
+         * @param index   the index of replicate starting from 0.
+         * @param seed    the seed of this replicate, which is given to {@link #simulate(Long, Supplier)}.
+         * @param outDir  the output directory only used by this replicate.
+         */
+        void run(int index, Long seed, Path outDir) throws Exception;
+    }
+
+    // the simulations of replicates are serialised
+    private static final Object SIMULATION_LOCK = new Object();
+
+    private final int nWorkers;
+    private final long[] seeds;
+
+    /**
+     * @param nReplicates      the number of replicates.
+     * @param workers          the number of workers, if <=0, then use the number of cores.
+     * @param memoryPerWorker  the memory budget in bytes of each worker, if <=0, then ignore it.
+     * @param seed             the master seed to create the seed of each replicate.
+     */
+    public ReplicateRunner(int nReplicates, int workers, long memoryPerWorker, long seed) {
+        this.nWorkers = Math.min(nReplicates, getWorkerCount(workers, memoryPerWorker));
+        this.seeds = createSeeds(seed, nReplicates);
+    }
+
+    /**
+     * @param workers          the number of workers, if <=0, then use the number of cores.
+     * @param memoryPerWorker  the memory budget in bytes of each worker, if <=0, then ignore it.
+     * @return  the number of workers bounded by the cores and the max memory of this JVM.
+     */
+    public static int getWorkerCount(int workers, long memoryPerWorker) {
+        int n = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        if (memoryPerWorker > 0) {
+            long maxMemory = Runtime.getRuntime().maxMemory();
+            n = (int) Math.min(n, maxMemory / memoryPerWorker);
+        }
+        return Math.max(1, n);
+    }
+
+    /**
+     * @return  the seeds of replicates, each from a split of the master seed stream.
+     */
+    public static long[] createSeeds(long seed, int nReplicates) {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] seeds = new long[nReplicates];
+        for (int i = 0; i < nReplicates; i++)
+            seeds[i] = random.split().nextLong();
+        return seeds;
+    }
+
+    /**
+     * Seed both the LPhy simulation and BEAST {@link Randomizer},
+     * which has to be called before the LPhy script is sampled.
+     */
+    public static void setSeed(long seed) {
+        RandomUtils.setSeed(seed);
+        Randomizer.setSeed(seed);
+    }
+
+    /**
+     * Seed and run the simulation of a replicate, e.g. parse, sample and convert the LPhy script,
+     * while no other replicate uses the random number generators.
+     * @param seed        the seed of this replicate, if null, then not to set it.
+     * @param simulation  the simulation, which should not include the MCMC.
+     * @return  the result of simulation.
+     */
+    public static <T> T simulate(Long seed, Supplier<T> simulation) {
+        synchronized (SIMULATION_LOCK) {
+            if (seed != null)
+                setSeed(seed);
+            return simulation.get();
+        }
+    }
+
+    public int getWorkerCount() {
+        return nWorkers;
+    }
+
+    /**
+     * Run all replicates, where the output directory of replicate i is parentDir/fileStem_i.
+     * @param parentDir  the parent directory of all output directories.
+     * @param fileStem   the file stem of outputs
+     * @param replicate  the job of one replicate.
+     * @return  the number of failed replicates.
+     */
+    public int run(Path parentDir, String fileStem, Replicate replicate) {
+        final int nReplicates = seeds.length;
+        System.out.println("Run " + nReplicates + " replicates using " + nWorkers + " workers.");
+
+        ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < nReplicates; i++) {
+            final int index = i;
+            final long seed = seeds[i];
+            futures.add(executor.submit(() -> {
+                Path outDir = parentDir.resolve(fileStem + "_" + index);
+                Files.createDirectories(outDir);
+                replicate.run(index, seed, outDir);
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed++;
+            } catch (ExecutionException e) {
+                LoggerUtils.log.severe("Replicate " + i + " failed : " + e.getCause());
+                e.getCause().printStackTrace();
+                failed++;
+            }
+        }
+        System.out.println((nReplicates - failed) + " of " + nReplicates + " replicates finished.");
+        return failed;
+    }
+
+}
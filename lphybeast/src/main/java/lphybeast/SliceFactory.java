@@ -1,15 +1,28 @@
 package lphybeast;
 
 import beast.core.BEASTInterface;
+import beast.core.Function;
 import beast.core.util.Slice;
+import feast.function.Concatenate;
+import lphy.graphicalModel.VectorUtils;
+import lphy.util.LoggerUtils;
+
+import java.util.*;
 
 /**
- * Utils class to create frequently used BEAST objects
+ * Utils class to create frequently used BEAST objects.
+ * The instance owned by {@link BEASTContext} also caches the slices by (arg, index, count),
+ * so that the same element of a vector is only sliced once.
  * @author Alexei Drummond
  * @author Walter Xie
  */
 public final class SliceFactory {
 
+    // the slices created by this factory
+    private final Map<SliceKey, Slice> sliceCache = new HashMap<>();
+    // the number of ranged slices whose argument and consumer have no ID
+    private int unnamed = 0;
+
     /**
      * @param slicedBEASTObj  map to "arg" input, argument to extract element from.
      * @param index           map to "index" input, index of first element to extract.
@@ -37,5 +50,161 @@ public final class SliceFactory {
         return slice;
     }
 
+    /**
+     * The cached version of {@link #createSlice(BEASTInterface, int, int, String)}.
+     * @param id  Slice ID, only used if the slice is not created before.
+     *            A warning is logged if the cached slice has a different ID.
+     * @return   the {@link Slice} of the same arg, index and count, if it is created before,
+     *           otherwise a new {@link Slice}.
+     */
+    public Slice getSlice(BEASTInterface slicedBEASTObj, int index, int count, String id) {
+        SliceKey key = new SliceKey(slicedBEASTObj, index, count);
+        Slice slice = sliceCache.get(key);
+        if (slice == null) {
+            slice = createSlice(slicedBEASTObj, index, count, id);
+            sliceCache.put(key, slice);
+        } else if (!Objects.equals(slice.getID(), id)) {
+            LoggerUtils.log.warning("Reuse the slice " + slice.getID() + " of " + slicedBEASTObj.getID() +
+                    " [" + index + ", count " + count + "] requested as " + id + " !");
+        }
+        return slice;
+    }
+
+    /**
+     * @see #getSlice(BEASTInterface, int, int, String)
+     */
+    public Slice getSlice(BEASTInterface slicedBEASTObj, int index, String id) {
+        return getSlice(slicedBEASTObj, index, 1, id);
+    }
+
+    public void clear() {
+        sliceCache.clear();
+        unnamed = 0;
+    }
+
+    /**
+     * Merge the runs of adjacent single-element slices of the same argument
+     * in the {@link Concatenate} into one ranged slice,
+     * e.g. x[0], x[1], x[2] becomes x[0:2], which has the same values.
+     * The replaced slices no longer used by any other BEAST object are removed from the cache.
+     * @param concatenate  the consumer of slices.
+     * @return  the single-element slices which are replaced and no longer used, otherwise an empty list.
+     */
+    public List<Slice> coalesceSlices(Concatenate concatenate) {
+        List<Function> functions = concatenate.functionsInput.get();
+        List<Function> coalesced = new ArrayList<>();
+        List<Slice> replaced = new ArrayList<>();
+
+        int i = 0;
+        while (i < functions.size()) {
+            int end = i + 1;
+            if (isSingleElementSlice(functions.get(i))) {
+                Slice first = (Slice) functions.get(i);
+                while (end < functions.size() && isNextSlice(first, end - i, functions.get(end)))
+                    end++;
+            }
+            if (end - i > 1) {
+                Slice first = (Slice) functions.get(i);
+                BEASTInterface arg = (BEASTInterface) first.functionInput.get();
+                int index = first.indexInput.get();
+                int count = end - i;
+                coalesced.add(getSlice(arg, index, count, getStem(arg, concatenate) +
+                        VectorUtils.INDEX_SEPARATOR + index + "-" + (index + count - 1)));
+                for (int j = i; j < end; j++)
+                    replaced.add((Slice) functions.get(j));
+            } else {
+                coalesced.add(functions.get(i));
+            }
+            i = end;
+        }
+
+        List<Slice> unused = new ArrayList<>();
+        if (replaced.size() > 0) {
+            // setting a list input appends to it
+            functions.clear();
+            concatenate.setInputValue("arg", coalesced);
+            concatenate.initAndValidate();
+            for (Slice slice : replaced) {
+                slice.getOutputs().remove(concatenate);
+                if (slice.getOutputs().isEmpty()) {
+                    // detach from the argument, so that it is not in the calculation graph
+                    ((BEASTInterface) slice.functionInput.get()).getOutputs().remove(slice);
+                    sliceCache.values().remove(slice);
+                    unused.add(slice);
+                }
+            }
+        }
+        return unused;
+    }
+
+    // the argument may have no ID, nor the consumer
+    private String getStem(BEASTInterface arg, Concatenate concatenate) {
+        if (arg.getID() != null)
+            return arg.getID();
+        if (concatenate.getID() != null)
+            return concatenate.getID();
+        return "slice" + unnamed++;
+    }
+
+    private boolean isSingleElementSlice(Function function) {
+        return function instanceof Slice && ((Slice) function).countInput.get() == 1 &&
+                ((Slice) function).functionInput.get() instanceof BEASTInterface;
+    }
+
+    // if the function is the offset-th element after the first slice
+    private boolean isNextSlice(Slice first, int offset, Function function) {
+        return isSingleElementSlice(function) &&
+                ((Slice) function).functionInput.get() == first.functionInput.get() &&
+                ((Slice) function).indexInput.get() == first.indexInput.get() + offset;
+    }
+
+    /**
+     * @param id  the unique id of a graphical model node.
+     * @return  the element index, if the id is in the format of "vectorId" + {@link VectorUtils#INDEX_SEPARATOR} + "index",
+     *          otherwise -1.
+     */
+    public static int parseElementIndex(String id) {
+        int sep = id.indexOf(VectorUtils.INDEX_SEPARATOR);
+        if (sep < 0 || sep != id.lastIndexOf(VectorUtils.INDEX_SEPARATOR))
+            return -1;
+        try {
+            return Integer.parseInt(id.substring(sep + VectorUtils.INDEX_SEPARATOR.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param id  the unique id of a graphical model node, where {@link #parseElementIndex(String)} >= 0.
+     * @return  the id of the vector.
+     */
+    public static String parseVectorId(String id) {
+        return id.substring(0, id.indexOf(VectorUtils.INDEX_SEPARATOR));
+    }
+
+    // slices are the same, if their arguments are the same object
+    private static final class SliceKey {
+        final BEASTInterface arg;
+        final int index;
+        final int count;
+
+        SliceKey(BEASTInterface arg, int index, int count) {
+            this.arg = arg;
+            this.index = index;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SliceKey)) return false;
+            SliceKey key = (SliceKey) o;
+            return arg == key.arg && index == key.index && count == key.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(arg) + index) + count;
+        }
+    }
 
 }
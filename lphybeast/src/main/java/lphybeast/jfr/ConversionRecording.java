@@ -0,0 +1,63 @@
+package lphybeast.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The JFR recording of conversions, using the low-overhead "default" settings of the JVM
+ * plus all LPhyBEAST events, which is written to the destination when it is stopped.
+ * The events are also recorded by any other recording, e.g. started by
+ * <code>-XX:StartFlightRecording</code>, if they are enabled there.
+ * The recording also covers the chains in '--run' mode, so it is bounded by {@link #MAX_SIZE}
+ * and {@link #MAX_AGE}, beyond which the oldest events are dropped.
+ */
+public final class ConversionRecording {
+
+    public static final List<Class<? extends jdk.jfr.Event>> EVENTS = List.of(ParseEvent.class, SampleEvent.class,
+            ConverterEvent.class, RegistryEvent.class, PosteriorEvent.class, OperatorEvent.class, XMLEvent.class);
+
+    // bytes
+    public static final long MAX_SIZE = 256L * 1024 * 1024;
+    public static final Duration MAX_AGE = Duration.ofHours(24);
+
+    private final Recording recording;
+
+    private ConversionRecording(Recording recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * @param destination  the .jfr file.
+     * @return  the started recording.
+     */
+    public static ConversionRecording start(Path destination) throws IOException, ParseException {
+        Recording recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("LPhyBEAST");
+        for (Class<? extends jdk.jfr.Event> event : EVENTS)
+            recording.enable(event).withoutThreshold();
+        recording.setToDisk(true);
+        recording.setMaxSize(MAX_SIZE);
+        recording.setMaxAge(MAX_AGE);
+        recording.setDestination(destination);
+        recording.start();
+        return new ConversionRecording(recording);
+    }
+
+    /**
+     * Stop and write the recording to the destination.
+     * @return  the .jfr file.
+     */
+    public Path stop() {
+        recording.stop();
+        Path destination = recording.getDestination();
+        recording.close();
+        return destination;
+    }
+
+}
@@ -0,0 +1,28 @@
+package lphybeast.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A call of {@link lphybeast.ValueToBEAST} or {@link lphybeast.GeneratorToBEAST}.
+ */
+@Name("lphybeast.Converter")
+@Label("Converter Call")
+@Category({"LPhyBEAST", "Conversion"})
+@StackTrace(false)
+public class ConverterEvent extends Event {
+
+    @Label("Converter")
+    public String converter;
+
+    @Label("Method")
+    @Description("valueToBEAST, modifyBEASTValues or generatorToBEAST")
+    public String method;
+
+    @Label("Node ID")
+    @Description("The ID of the LPhy value, or the name of the generator and its value ID")
+    public String nodeId;
+
+    @Label("BEAST Class")
+    public String beastClass;
+
+}
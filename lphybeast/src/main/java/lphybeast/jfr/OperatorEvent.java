@@ -0,0 +1,17 @@
+package lphybeast.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Create the operators of all state nodes.
+ */
+@Name("lphybeast.Operators")
+@Label("Operator Creation")
+@Category({"LPhyBEAST", "Conversion"})
+@StackTrace(false)
+public class OperatorEvent extends Event {
+
+    @Label("Operators")
+    public int operators;
+
+}
@@ -0,0 +1,17 @@
+package lphybeast.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Parse LPhy scripts.
+ */
+@Name("lphybeast.Parse")
+@Label("Parse LPhy")
+@Category({"LPhyBEAST", "Conversion"})
+@StackTrace(false)
+public class ParseEvent extends Event {
+
+    @Label("Script")
+    public String script;
+
+}
@@ -0,0 +1,17 @@
+package lphybeast.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Assemble the posterior from the priors and likelihoods.
+ */
+@Name("lphybeast.Posterior")
+@Label("Posterior Assembly")
+@Category({"LPhyBEAST", "Conversion"})
+@StackTrace(false)
+public class PosteriorEvent extends Event {
+
+    @Label("State Nodes")
+    public int stateNodes;
+
+}
@@ -0,0 +1,23 @@
+package lphybeast.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Add or remove a BEAST object in {@link lphybeast.BEASTContext}.
+ */
+@Name("lphybeast.Registry")
+@Label("Context Registry")
+@Category({"LPhyBEAST", "Conversion"})
+@StackTrace(false)
+public class RegistryEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("BEAST Class")
+    public String beastClass;
+
+    @Label("BEAST ID")
+    public String beastId;
+
+}
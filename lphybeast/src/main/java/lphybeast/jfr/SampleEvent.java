@@ -0,0 +1,17 @@
+package lphybeast.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Sample the LPhy model once and log the true values.
+ */
+@Name("lphybeast.Sample")
+@Label("Sample LPhy Model")
+@Category({"LPhyBEAST", "Conversion"})
+@StackTrace(false)
+public class SampleEvent extends Event {
+
+    @Label("Script")
+    public String script;
+
+}
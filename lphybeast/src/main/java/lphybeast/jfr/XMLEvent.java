@@ -0,0 +1,25 @@
+package lphybeast.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Produce the BEAST 2 XML string, or write it to a file.
+ */
+@Name("lphybeast.XML")
+@Label("XML Write")
+@Category({"LPhyBEAST", "Conversion"})
+@StackTrace(false)
+public class XMLEvent extends Event {
+
+    @Label("Operation")
+    @Description("produce or write")
+    public String operation;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Length")
+    @Description("The number of characters")
+    public long length;
+
+}
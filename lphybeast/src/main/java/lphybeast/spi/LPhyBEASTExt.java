@@ -10,6 +10,7 @@ import lphybeast.ValueToBEAST;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * The service interface defined for SPI.
@@ -32,6 +33,15 @@ public interface LPhyBEASTExt {
 
     List<Class<? extends Value>> getExcludedValue();
 
+    /**
+     * The conditional exclusion, which depends on the generator instance,
+     * e.g. IID is only excluded if its base distribution is DiscretizedGamma.
+     * @return  the generator class (including subclasses) maps to the condition to exclude it.
+     */
+    default Map<Class<? extends Generator>, Predicate<Generator>> getExcludedGeneratorPredicates() {
+        return Map.of();
+    }
+
     /**
      * Use {@link PackageManager} to load the container classes from LPhyBEAST extensions,
      * which include all extended classes.
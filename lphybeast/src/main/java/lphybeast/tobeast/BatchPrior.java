@@ -0,0 +1,252 @@
+package lphybeast.tobeast;
+
+import beast.core.*;
+import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.RealParameter;
+import beast.math.distributions.ParametricDistribution;
+import beast.math.distributions.Prior;
+import org.apache.commons.math.MathException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Evaluate many priors in one calculation node, replacing a {@link Prior} per parameter.
+ * The i-th prior is the density of the i-th "distr" at the i-th "x".
+ * Only the priors whose argument or distribution is dirty are recomputed,
+ * and the log density of every prior is cached. Only the log densities changed
+ * since the last store are journaled, so that store and restore do not copy all of them,
+ * and the total is updated by the differences of the recomputed priors.
+ * BEAST does not tell which inputs became dirty, so finding the dirty priors is still
+ * one scan of all N arguments per step, which is done in {@link #requiresRecalculation()}
+ * and reused by {@link #calculateLogP()}.
+ */
+@Description("A batch of priors, which only recomputes the priors whose argument or distribution changed.")
+public class BatchPrior extends Distribution {
+
+    // do not batch a few priors, which keeps small XML readable
+    public static final int MIN_BATCH_SIZE = 10;
+
+    final public Input<List<Function>> xInput = new Input<>("x", "the arguments of priors.",
+            new ArrayList<>(), Input.Validate.REQUIRED);
+    final public Input<List<ParametricDistribution>> distInput = new Input<>("distr",
+            "the distributions of priors in the same order as x.", new ArrayList<>(), Input.Validate.REQUIRED);
+
+    private List<Function> xList;
+    private List<ParametricDistribution> distList;
+    private double[] logPs;
+    // the indices and old values of the log densities changed since the last store
+    private int[] changed;
+    private double[] changedLogPs;
+    private int nChanged;
+    private boolean[] isChanged;
+    // the indices of the dirty priors found by requiresRecalculation, valid until calculateLogP
+    private int[] dirty;
+    private int nDirty;
+    private boolean hasDirty;
+
+    @Override
+    public void initAndValidate() {
+        xList = xInput.get();
+        distList = distInput.get();
+        if (xList.size() != distList.size())
+            throw new IllegalArgumentException("The number of x " + xList.size() +
+                    " and distr " + distList.size() + " must be the same !");
+        logPs = new double[xList.size()];
+        changed = new int[xList.size()];
+        changedLogPs = new double[xList.size()];
+        isChanged = new boolean[xList.size()];
+        nChanged = 0;
+        dirty = new int[xList.size()];
+        nDirty = 0;
+        hasDirty = false;
+        for (int i = 0; i < logPs.length; i++)
+            logPs[i] = calculateLogP(i);
+        logP = sumLogPs();
+    }
+
+    /**
+     * @param priors  the priors to evaluate in one batch.
+     * @return  the batch of given priors.
+     */
+    public static BatchPrior createBatchPrior(List<Prior> priors) {
+        List<Function> xList = new ArrayList<>();
+        List<ParametricDistribution> distList = new ArrayList<>();
+        for (Prior prior : priors) {
+            xList.add(prior.m_x.get());
+            distList.add(prior.distInput.get());
+        }
+        BatchPrior batchPrior = new BatchPrior();
+        batchPrior.setInputValue("x", xList);
+        batchPrior.setInputValue("distr", distList);
+        batchPrior.initAndValidate();
+        return batchPrior;
+    }
+
+    /**
+     * @return  true if the prior is a plain {@link Prior}, and its argument can tell if it is dirty.
+     */
+    public static boolean isBatchable(Distribution distribution) {
+        if (distribution.getClass() != Prior.class)
+            return false;
+        Function x = ((Prior) distribution).m_x.get();
+        return x instanceof StateNode || x instanceof CalculationNode;
+    }
+
+    @Override
+    public double calculateLogP() {
+        if (!hasDirty)
+            findDirty();
+        hasDirty = false;
+
+        boolean resum = !Double.isFinite(logP);
+        for (int k = 0; k < nDirty; k++) {
+            int i = dirty[k];
+            double oldLogP = logPs[i];
+            if (!isChanged[i]) {
+                isChanged[i] = true;
+                changed[nChanged] = i;
+                changedLogPs[nChanged++] = oldLogP;
+            }
+            double newLogP = calculateLogP(i);
+            logPs[i] = newLogP;
+            // the difference of infinities is NaN
+            if (Double.isFinite(oldLogP) && Double.isFinite(newLogP))
+                logP += newLogP - oldLogP;
+            else
+                resum = true;
+        }
+        nDirty = 0;
+        if (resum)
+            logP = sumLogPs();
+        return logP;
+    }
+
+    private double sumLogPs() {
+        double sum = 0;
+        for (double logP : logPs)
+            sum += logP;
+        return sum;
+    }
+
+    // the same as Prior
+    private double calculateLogP(int i) {
+        Function x = xList.get(i);
+        if (x instanceof RealParameter || x instanceof IntegerParameter) {
+            // test that parameter is inside its bounds
+            double l = 0.0;
+            double h = 0.0;
+            if (x instanceof RealParameter) {
+                l = ((RealParameter) x).getLower();
+                h = ((RealParameter) x).getUpper();
+            } else {
+                l = ((IntegerParameter) x).getLower();
+                h = ((IntegerParameter) x).getUpper();
+            }
+            for (int j = 0; j < x.getDimension(); j++) {
+                double value = x.getArrayValue(j);
+                if (value < l || value > h)
+                    return Double.NEGATIVE_INFINITY;
+            }
+        }
+        double logP = distList.get(i).calcLogP(x);
+        if (logP == Double.POSITIVE_INFINITY)
+            logP = Double.NEGATIVE_INFINITY;
+        return logP;
+    }
+
+    private boolean isDirty(int i) {
+        Function x = xList.get(i);
+        if (x instanceof StateNode && ((StateNode) x).somethingIsDirty())
+            return true;
+        if (x instanceof CalculationNode && ((CalculationNode) x).isDirtyCalculation())
+            return true;
+        return distList.get(i).isDirtyCalculation();
+    }
+
+    // O(N), the only scan of all priors in a step
+    private void findDirty() {
+        nDirty = 0;
+        for (int i = 0; i < logPs.length; i++) {
+            if (isDirty(i))
+                dirty[nDirty++] = i;
+        }
+    }
+
+    @Override
+    protected boolean requiresRecalculation() {
+        findDirty();
+        hasDirty = true;
+        return nDirty > 0;
+    }
+
+    @Override
+    public void store() {
+        clearChanged();
+        clearDirty();
+        super.store();
+    }
+
+    @Override
+    public void restore() {
+        for (int k = nChanged - 1; k >= 0; k--)
+            logPs[changed[k]] = changedLogPs[k];
+        clearChanged();
+        clearDirty();
+        // restores the running total logP stored by Distribution.store()
+        super.restore();
+    }
+
+    private void clearDirty() {
+        nDirty = 0;
+        hasDirty = false;
+    }
+
+    private void clearChanged() {
+        for (int k = 0; k < nChanged; k++)
+            isChanged[changed[k]] = false;
+        nChanged = 0;
+    }
+
+    @Override
+    public List<String> getArguments() {
+        List<String> arguments = new ArrayList<>();
+        for (Function x : xList) {
+            if (x instanceof BEASTInterface)
+                arguments.add(((BEASTInterface) x).getID());
+        }
+        return arguments;
+    }
+
+    @Override
+    public List<String> getConditions() {
+        List<String> conditions = new ArrayList<>();
+        for (ParametricDistribution dist : distList)
+            conditions.add(dist.getID());
+        return conditions;
+    }
+
+    /**
+     * Sample every argument from its distribution, the same as {@link Prior#sample(State, Random)}
+     * except that the distributions are not sampled first.
+     */
+    @Override
+    public void sample(State state, Random random) {
+        for (int i = 0; i < xList.size(); i++) {
+            Function x = xList.get(i);
+            Double[][] newx;
+            try {
+                newx = distList.get(i).sample(x.getDimension());
+            } catch (MathException e) {
+                throw new RuntimeException("Failed to sample " + getArguments().get(i) + " !", e);
+            }
+            for (int j = 0; j < x.getDimension(); j++) {
+                if (x instanceof RealParameter)
+                    ((RealParameter) x).setValue(j, newx[j][0]);
+                else if (x instanceof IntegerParameter)
+                    ((IntegerParameter) x).setValue(j, (int) Math.round(newx[j][0]));
+            }
+        }
+    }
+}
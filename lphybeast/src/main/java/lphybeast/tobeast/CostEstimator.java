@@ -0,0 +1,167 @@
+package lphybeast.tobeast;
+
+import beast.core.*;
+import beast.core.util.CompoundDistribution;
+import beast.evolution.alignment.Alignment;
+import beast.evolution.likelihood.GenericTreeLikelihood;
+import lphybeast.BEASTContext;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Estimate the computational cost of the MCMC before running it.
+ * The cost of every tree likelihood is given by patterns * taxa * states * categories,
+ * see {@link BEASTContext#getLikelihoodCost(GenericTreeLikelihood)}.
+ * The wall time is projected from a microbenchmark of every operator,
+ * where the time of an MCMC iteration is the average time of proposals
+ * weighted by the operator weights.
+ */
+public class CostEstimator {
+
+    // leave 10% of the time budget for the start-up, logging and the variation of cost
+    public static final double TIME_BUDGET_MARGIN = 0.9;
+
+    private final Distribution posterior;
+    private final State state;
+    private final List<Operator> operators;
+    private final List<StateNodeInitialiser> inits;
+
+    private double nanosPerIteration = Double.NaN;
+
+    /**
+     * @param mcmc  the MCMC created by {@link BEASTContext#createMCMC(long, String, int)}.
+     */
+    public CostEstimator(MCMC mcmc) {
+        this.posterior = mcmc.posteriorInput.get();
+        this.state = mcmc.startStateInput.get();
+        this.operators = mcmc.operatorsInput.get();
+        this.inits = mcmc.initialisersInput.get();
+    }
+
+    /**
+     * Run the microbenchmark once, and then reuse the result.
+     * The state is restored afterwards, e.g. the one calibrated by {@link OperatorCalibration},
+     * and every operator is warmed up before it is timed, see {@link OperatorCalibration#timeProposal}.
+     * @return  the average time in nanoseconds of one MCMC iteration.
+     */
+    public double getNanosPerIteration() {
+        if (Double.isNaN(nanosPerIteration)) {
+            StateSnapshot snapshot = new StateSnapshot(state, operators);
+            for (StateNodeInitialiser init : inits)
+                init.initStateNodes();
+            state.robustlyCalcPosterior(posterior);
+
+            double totalWeight = 0;
+            double nanos = 0;
+            for (Operator operator : operators) {
+                double weight = operator.getWeight();
+                nanos += weight * OperatorCalibration.timeProposal(operator, state, posterior);
+                totalWeight += weight;
+            }
+            snapshot.restore();
+            nanosPerIteration = totalWeight > 0 ? nanos / totalWeight : 0;
+        }
+        return nanosPerIteration;
+    }
+
+    /**
+     * @param seconds       the wall-time budget of the chain.
+     * @param numOfSamples  the number of samples in the log.
+     * @return  the chain length fitting 90% of the time budget, which is rounded down
+     *          to a multiple of numOfSamples, but at least numOfSamples.
+     */
+    public long getChainLength(double seconds, int numOfSamples) {
+        double nanos = getNanosPerIteration();
+        if (nanos <= 0)
+            throw new IllegalStateException("Cannot measure the cost of an MCMC iteration !");
+        long chainLength = (long) (TIME_BUDGET_MARGIN * seconds * 1e9 / nanos);
+        return Math.max(numOfSamples, chainLength / numOfSamples * numOfSamples);
+    }
+
+    /**
+     * @return  the average time in nanoseconds of a full evaluation of the posterior.
+     */
+    public double getNanosPerFullEvaluation() {
+        final int repeats = 10;
+        long start = System.nanoTime();
+        for (int i = 0; i < repeats; i++)
+            state.robustlyCalcPosterior(posterior);
+        return (double) (System.nanoTime() - start) / repeats;
+    }
+
+    public List<GenericTreeLikelihood> getTreeLikelihoods() {
+        List<GenericTreeLikelihood> treeLikelihoods = new ArrayList<>();
+        collectTreeLikelihoods(posterior, treeLikelihoods);
+        return treeLikelihoods;
+    }
+
+    private void collectTreeLikelihoods(Distribution distribution, List<GenericTreeLikelihood> treeLikelihoods) {
+        if (distribution instanceof GenericTreeLikelihood) {
+            treeLikelihoods.add((GenericTreeLikelihood) distribution);
+        } else if (distribution instanceof CompoundDistribution) {
+            for (Distribution child : ((CompoundDistribution) distribution).pDistributions.get())
+                collectTreeLikelihoods(child, treeLikelihoods);
+        }
+    }
+
+    /**
+     * Print the report of likelihood costs, state dimension, operators,
+     * and the projected wall time.
+     * @param chainLength  the chain length to project the wall time.
+     * @param out          where to print the report.
+     */
+    public void report(long chainLength, PrintStream out) {
+        out.println("\n=== Computational cost estimate ===");
+
+        out.println(String.format("%-40s %-12s %10s %8s %8s %10s %16s", "Tree likelihood", "Data type",
+                "Patterns", "Taxa", "States", "Categories", "Cost"));
+        double totalCost = 0;
+        for (GenericTreeLikelihood treeLikelihood : getTreeLikelihoods()) {
+            double cost = BEASTContext.getLikelihoodCost(treeLikelihood);
+            totalCost += cost;
+            Alignment alignment = treeLikelihood.dataInput.get();
+            if (alignment == null) {
+                out.println(String.format("%-40s", treeLikelihood.getID()));
+                continue;
+            }
+            int categories = treeLikelihood.siteModelInput.get() == null ? 1 :
+                    treeLikelihood.siteModelInput.get().getCategoryCount();
+            out.println(String.format("%-40s %-12s %10d %8d %8d %10d %16.0f", treeLikelihood.getID(),
+                    alignment.getDataType().getTypeDescription(), alignment.getPatternCount(),
+                    alignment.getTaxonCount(), alignment.getDataType().getStateCount(), categories, cost));
+        }
+        out.println(String.format("Total likelihood cost per full evaluation = %.0f", totalCost));
+
+        int dimension = 0;
+        for (StateNode stateNode : state.stateNodeInput.get())
+            dimension += stateNode.getDimension();
+        out.println("State : " + state.stateNodeInput.get().size() + " state nodes, dimension = " + dimension);
+
+        Map<String, Integer> operatorCounts = new TreeMap<>();
+        for (Operator operator : operators)
+            operatorCounts.merge(operator.getClass().getSimpleName(), 1, Integer::sum);
+        out.println("Operators : " + operators.size() + " " + operatorCounts);
+
+        double nanosPerIteration = getNanosPerIteration();
+        out.println(String.format("Full posterior evaluation = %.3f ms", getNanosPerFullEvaluation() / 1e6));
+        out.println(String.format("MCMC iteration = %.3f ms", nanosPerIteration / 1e6));
+        chainLength = BEASTContext.getChainLength(chainLength);
+        out.println("Projected wall time of " + chainLength + " states = " +
+                formatSeconds(chainLength * nanosPerIteration / 1e9) + "\n");
+    }
+
+    /**
+     * @return  the duration in the format of "1d 02:03:04".
+     */
+    public static String formatSeconds(double seconds) {
+        long s = Math.round(seconds);
+        long days = s / 86400;
+        String hms = String.format("%02d:%02d:%02d", (s % 86400) / 3600, (s % 3600) / 60, s % 60);
+        return days > 0 ? days + "d " + hms : hms;
+    }
+
+}
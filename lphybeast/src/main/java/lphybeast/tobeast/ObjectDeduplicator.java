@@ -0,0 +1,193 @@
+package lphybeast.tobeast;
+
+import beast.core.BEASTInterface;
+import beast.core.Input;
+import beast.core.Logger;
+import beast.core.StateNode;
+import beast.core.parameter.Parameter;
+import beast.evolution.substitutionmodel.Frequencies;
+import beast.evolution.substitutionmodel.SubstitutionModel;
+import beast.math.distributions.ParametricDistribution;
+
+import java.util.*;
+
+/**
+ * Merge the structurally equal BEAST objects into one shared instance (hash-consing),
+ * such as the constant parameters, the distributions behind IID priors,
+ * and the frequencies or substitution models of partitions.
+ * Two objects are equal if they have the same class, the same ID and their inputs are equal,
+ * so that only the objects without ID are merged in practice, and the values are compared by their string and other BEAST objects are compared
+ * by the same rule if they are candidates, otherwise by identity.
+ * State nodes in the state and the objects logged by a {@link Logger} are never merged.
+ * Only the inputs are changed, so this is used before the XML is produced,
+ * where the shared instance is written once and then referred by its id.
+ * The shared instances without ID are given a unique ID, the class name plus a counter in the order of traversal,
+ * otherwise XMLProducer would refer to them by idref='null'.
+ */
+public class ObjectDeduplicator {
+
+    // the classes of BEAST objects which can be merged
+    static final Class[] CANDIDATE_CLASSES = new Class[]{Parameter.class, ParametricDistribution.class,
+            Frequencies.class, SubstitutionModel.class};
+
+    private final Set<StateNode> state;
+
+    // all objects in the order of traversal, which is also the order of XML
+    private final Set<BEASTInterface> allObjects = new LinkedHashSet<>();
+    private final Set<BEASTInterface> logged = new HashSet<>();
+
+    private final Map<BEASTInterface, String> signatures = new IdentityHashMap<>();
+    private final Map<Object, Integer> identities = new IdentityHashMap<>();
+
+    /**
+     * @param state  the state nodes, which are never merged.
+     */
+    public ObjectDeduplicator(Collection<StateNode> state) {
+        this.state = new HashSet<>(state);
+    }
+
+    /**
+     * @param roots  the objects to traverse through their inputs, e.g. MCMC and the extra elements in XML.
+     * @return  the map of every duplicate to its shared instance, which is already used by all consumers,
+     *          and has an ID.
+     */
+    public Map<BEASTInterface, BEASTInterface> deduplicate(Collection<? extends BEASTInterface> roots) {
+        for (BEASTInterface root : roots)
+            collect(root);
+
+        Map<String, BEASTInterface> shared = new HashMap<>();
+        Map<BEASTInterface, BEASTInterface> duplicates = new IdentityHashMap<>();
+        for (BEASTInterface beastObject : allObjects) {
+            if (!isCandidate(beastObject)) continue;
+            BEASTInterface first = shared.putIfAbsent(getSignature(beastObject), beastObject);
+            if (first != null)
+                duplicates.put(beastObject, first);
+        }
+
+        if (duplicates.size() > 0) {
+            for (BEASTInterface beastObject : allObjects) {
+                if (!duplicates.containsKey(beastObject))
+                    replaceInputs(beastObject, duplicates);
+            }
+            setSharedIDs(duplicates.values());
+        }
+        return duplicates;
+    }
+
+    // in the order of traversal, so the IDs are the same for the same model
+    private void setSharedIDs(Collection<BEASTInterface> sharedObjects) {
+        Set<BEASTInterface> unnamed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BEASTInterface sharedObject : sharedObjects) {
+            if (sharedObject.getID() == null)
+                unnamed.add(sharedObject);
+        }
+        if (unnamed.isEmpty()) return;
+
+        Set<String> ids = new HashSet<>();
+        for (BEASTInterface beastObject : allObjects) {
+            if (beastObject.getID() != null)
+                ids.add(beastObject.getID());
+        }
+        Map<String, Integer> counters = new HashMap<>();
+        for (BEASTInterface beastObject : allObjects) {
+            if (!unnamed.contains(beastObject)) continue;
+            String name = beastObject.getClass().getSimpleName();
+            String id;
+            do {
+                int counter = counters.merge(name, 1, Integer::sum);
+                id = name + counter;
+            } while (!ids.add(id));
+            beastObject.setID(id);
+        }
+    }
+
+    private void collect(BEASTInterface beastObject) {
+        if (!allObjects.add(beastObject)) return;
+        for (Input<?> input : beastObject.listInputs()) {
+            for (Object value : getValues(input)) {
+                if (value instanceof BEASTInterface) {
+                    if (beastObject instanceof Logger)
+                        logged.add((BEASTInterface) value);
+                    collect((BEASTInterface) value);
+                }
+            }
+        }
+    }
+
+    private boolean isCandidate(BEASTInterface beastObject) {
+        if (logged.contains(beastObject) || state.contains(beastObject))
+            return false;
+        for (Class cls : CANDIDATE_CLASSES) {
+            if (cls.isInstance(beastObject))
+                return true;
+        }
+        return false;
+    }
+
+    // inputs are compared in the order of listInputs, which is fixed for a class
+    private String getSignature(BEASTInterface beastObject) {
+        String signature = signatures.get(beastObject);
+        if (signature == null) {
+            // the objects named differently are kept apart, even if their values are equal
+            StringBuilder builder = new StringBuilder(beastObject.getClass().getName())
+                    .append("#").append(Objects.toString(beastObject.getID(), "")).append("(");
+            for (Input<?> input : beastObject.listInputs()) {
+                builder.append(input.getName()).append("=");
+                Object value = input.get();
+                if (value instanceof List) {
+                    builder.append("[");
+                    for (Object v : (List<?>) value)
+                        builder.append(getValueSignature(v)).append(",");
+                    builder.append("]");
+                } else {
+                    builder.append(getValueSignature(value));
+                }
+                builder.append(";");
+            }
+            signature = builder.append(")").toString();
+            signatures.put(beastObject, signature);
+        }
+        return signature;
+    }
+
+    private String getValueSignature(Object value) {
+        if (value instanceof BEASTInterface) {
+            if (isCandidate((BEASTInterface) value))
+                return getSignature((BEASTInterface) value);
+            return "@" + identities.computeIfAbsent(value, v -> identities.size());
+        }
+        return String.valueOf(value);
+    }
+
+    // point the inputs of the consumer to the shared instances
+    private void replaceInputs(BEASTInterface consumer, Map<BEASTInterface, BEASTInterface> duplicates) {
+        for (Input input : consumer.listInputs()) {
+            Object value = input.get();
+            if (value instanceof List) {
+                List list = (List) value;
+                for (int i = 0; i < list.size(); i++) {
+                    BEASTInterface sharedObject = duplicates.get(list.get(i));
+                    if (sharedObject != null) {
+                        ((BEASTInterface) list.get(i)).getOutputs().remove(consumer);
+                        list.set(i, sharedObject);
+                        sharedObject.getOutputs().add(consumer);
+                    }
+                }
+            } else if (value != null) {
+                BEASTInterface sharedObject = duplicates.get(value);
+                if (sharedObject != null) {
+                    ((BEASTInterface) value).getOutputs().remove(consumer);
+                    input.setValue(sharedObject, consumer);
+                }
+            }
+        }
+    }
+
+    private List<?> getValues(Input<?> input) {
+        Object value = input.get();
+        if (value instanceof List)
+            return (List<?>) value;
+        return value == null ? Collections.emptyList() : Collections.singletonList(value);
+    }
+
+}
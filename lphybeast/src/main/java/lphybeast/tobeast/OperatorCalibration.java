@@ -0,0 +1,221 @@
+package lphybeast.tobeast;
+
+import beast.core.*;
+import beast.core.util.Log;
+import lphybeast.BEASTContext;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Calibrate the operator weights and starting tuning values by a short pilot chain,
+ * where the MCMC object graph is shared, so that the calibrated values appear in XML.
+ * The pilot chain measures the acceptance rate and auto-optimised tuning value of every operator,
+ * and then every operator is timed in isolation for its cost per proposal after a warm-up,
+ * including the recalculation of the posterior.
+ * The state and the operator counters are restored after the calibration,
+ * so that the MCMC starts from where it would without the pilot chain.
+ * The wall-clock time is used, so that the threads of tree likelihoods are counted.
+ * The new weight is proportional to w * sqrt(acceptance / cost), where w is
+ * the default weight {@link BEASTContext#getOperatorWeight(int)},
+ * so that cheap and efficient operators are proposed more often,
+ * but no state node is starved. The total weight is kept,
+ * and each new weight is bounded within [w / 10, w * 10].
+ */
+public class OperatorCalibration {
+
+    public static final long MIN_PILOT_LENGTH = 10000;
+    // bounds of the new weight relative to the default
+    static final double MAX_WEIGHT_RATIO = 10;
+    // the number of proposals and the min time to time each operator
+    static final int MIN_PROPOSALS = 20;
+    static final int MAX_PROPOSALS = 1000;
+    static final long MIN_TIMING_NANOS = 50_000_000L;
+
+    // the names of tuning inputs of BEAST operators, such as ScaleOperator and SubtreeSlide
+    static final String[] TUNING_INPUTS = new String[]{"scaleFactor", "size", "windowSize", "delta"};
+
+    private final MCMC mcmc;
+    private final Distribution posterior;
+    private final State state;
+    private final List<Operator> operators;
+    private final List<StateNodeInitialiser> inits;
+
+    /**
+     * @param mcmc  the MCMC created by {@link BEASTContext#createMCMC(long, String, int)},
+     *              whose operators will be calibrated.
+     */
+    public OperatorCalibration(MCMC mcmc) {
+        this.mcmc = mcmc;
+        this.posterior = mcmc.posteriorInput.get();
+        this.state = mcmc.startStateInput.get();
+        this.operators = mcmc.operatorsInput.get();
+        this.inits = mcmc.initialisersInput.get();
+    }
+
+    /**
+     * @param chainLength  the chain length of the analysis, if <=0, then use the default.
+     * @return  1% of the chain length, but at least {@link #MIN_PILOT_LENGTH}.
+     */
+    public static long getPilotLength(long chainLength) {
+        return Math.max(MIN_PILOT_LENGTH, BEASTContext.getChainLength(chainLength) / 100);
+    }
+
+    /**
+     * Run the pilot chain, and then set the "weight" and tuning inputs of operators.
+     * @param pilotLength  the chain length of the pilot chain.
+     */
+    public void calibrate(long pilotLength) throws IOException, SAXException, ParserConfigurationException {
+        System.out.println("\nCalibrate " + operators.size() + " operators using a pilot chain of " +
+                pilotLength + " states ...");
+        StateSnapshot snapshot = new StateSnapshot(state, operators);
+        runPilot(pilotLength);
+
+        final int n = operators.size();
+        double[] weights = new double[n];
+        double[] acceptance = new double[n];
+        double[] tunings = new double[n];
+        double[] costs = new double[n];
+        double[] scores = new double[n];
+        double totalWeight = 0;
+        double totalScore = 0;
+
+        // time every operator from the state where the pilot chain ends
+        state.robustlyCalcPosterior(posterior);
+        for (int i = 0; i < n; i++) {
+            Operator operator = operators.get(i);
+            weights[i] = operator.getWeight();
+            int tried = operator.get_m_nNrAccepted() + operator.get_m_nNrRejected();
+            acceptance[i] = tried > 0 ? (double) operator.get_m_nNrAccepted() / tried : Double.NaN;
+            tunings[i] = operator.getCoercableParameterValue();
+            costs[i] = timeProposal(operator, state, posterior);
+            totalWeight += weights[i];
+        }
+        // back to the state and operators before the pilot chain
+        snapshot.restore();
+
+        for (int i = 0; i < n; i++) {
+            // keep the default if not tried
+            if (Double.isNaN(acceptance[i]) || costs[i] <= 0)
+                scores[i] = Double.NaN;
+            else
+                scores[i] = weights[i] * Math.sqrt(acceptance[i] / costs[i]);
+        }
+        double untriedWeight = 0;
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(scores[i])) untriedWeight += weights[i];
+            else totalScore += scores[i];
+        }
+
+        System.out.println(String.format("%-40s %10s %12s %10s %10s %12s %12s", "Operator", "Accept",
+                "Cost (us)", "Weight", "New", "Tuning", "New"));
+        for (int i = 0; i < n; i++) {
+            Operator operator = operators.get(i);
+            double newWeight = weights[i];
+            if (!Double.isNaN(scores[i]) && totalScore > 0) {
+                newWeight = (totalWeight - untriedWeight) * scores[i] / totalScore;
+                newWeight = Math.min(weights[i] * MAX_WEIGHT_RATIO,
+                        Math.max(weights[i] / MAX_WEIGHT_RATIO, newWeight));
+                operator.setInputValue("weight", newWeight);
+            }
+
+            double oldTuning = Double.NaN;
+            double newTuning = tunings[i];
+            Input tuningInput = getTuningInput(operator);
+            if (tuningInput != null && !Double.isNaN(newTuning)) {
+                oldTuning = (Double) tuningInput.get();
+                operator.setInputValue(tuningInput.getName(), newTuning);
+                // the MCMC run in-process starts from it as well
+                operator.setCoercableParameterValue(newTuning);
+            }
+
+            System.out.println(String.format("%-40s %10.4f %12.3f %10.4f %10.4f %12.6f %12.6f",
+                    operator.getID(), acceptance[i], costs[i] / 1000.0, weights[i], newWeight, oldTuning, newTuning));
+        }
+        System.out.println();
+    }
+
+    // the pilot chain only shares the posterior, state and operators, which are detached from it afterwards
+    private void runPilot(long pilotLength) throws IOException, SAXException, ParserConfigurationException {
+        Logger screenLogger = new Logger();
+        screenLogger.setInputValue("logEvery", (int) Math.max(1, pilotLength / 10));
+        screenLogger.setInputValue("log", posterior);
+        screenLogger.initAndValidate();
+
+        MCMC pilot = new MCMC();
+        pilot.setInputValue("distribution", posterior);
+        pilot.setInputValue("state", state);
+        pilot.setInputValue("operator", operators);
+        if (inits.size() > 0) pilot.setInputValue("init", inits);
+        pilot.setInputValue("chainLength", pilotLength);
+        pilot.setInputValue("preBurnin", 0);
+        pilot.setInputValue("logger", screenLogger);
+        pilot.initAndValidate();
+
+        Path stateFile = Files.createTempFile("pilot", ".xml.state");
+        try {
+            pilot.setStateFile(stateFile.toString(), false);
+            pilot.run();
+        } finally {
+            Files.deleteIfExists(stateFile);
+            // the pilot registered the operators to its own schedule
+            for (Operator operator : operators)
+                operator.setOperatorSchedule(mcmc.getOperatorSchedule());
+            for (BEASTInterface beastObject : pilot.listActiveBEASTObjects())
+                beastObject.getOutputs().remove(pilot);
+        }
+    }
+
+    /**
+     * Repeat the proposal followed by the rejection, as the MCMC loop does,
+     * once to warm up the JIT compiler, and then to time it.
+     * The posterior must be calculated before this, e.g. by {@link State#robustlyCalcPosterior(Distribution)}.
+     * @return  the average time in nanoseconds of one proposal
+     *          including the recalculation of the posterior.
+     */
+    public static double timeProposal(Operator operator, State state, Distribution posterior) {
+        repeatProposal(operator, state, posterior);
+        return repeatProposal(operator, state, posterior);
+    }
+
+    // the average time in nanoseconds
+    private static double repeatProposal(Operator operator, State state, Distribution posterior) {
+        int count = 0;
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (count < MAX_PROPOSALS && (count < MIN_PROPOSALS || elapsed < MIN_TIMING_NANOS)) {
+            state.store(-1);
+            double logHR = operator.proposal();
+            if (logHR != Double.NEGATIVE_INFINITY) {
+                state.storeCalculationNodes();
+                state.checkCalculationNodesDirtiness();
+                posterior.calculateLogP();
+                state.restore();
+                state.restoreCalculationNodes();
+            } else {
+                state.restore();
+            }
+            state.setEverythingDirty(false);
+            count++;
+            elapsed = System.nanoTime() - start;
+        }
+        if (elapsed <= 0)
+            Log.warning.println("Cannot measure the cost of operator " + operator.getID());
+        return (double) elapsed / count;
+    }
+
+    private Input getTuningInput(Operator operator) {
+        for (String name : TUNING_INPUTS) {
+            for (Input<?> input : operator.listInputs()) {
+                if (input.getName().equals(name) && input.get() instanceof Double)
+                    return input;
+            }
+        }
+        return null;
+    }
+
+}
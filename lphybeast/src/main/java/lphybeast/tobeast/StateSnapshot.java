@@ -0,0 +1,53 @@
+package lphybeast.tobeast;
+
+import beast.core.Operator;
+import beast.core.State;
+import beast.core.StateNode;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The copy of state nodes and operators taken before they are changed outside the MCMC,
+ * e.g. by a pilot chain or timing the proposals, so that the MCMC still starts from them.
+ * The operators keep their acceptance counts and tuning values,
+ * which are restored the same way as resuming from a state file.
+ */
+final class StateSnapshot {
+
+    private final List<StateNode> stateNodes;
+    private final List<StateNode> stateNodeCopies = new ArrayList<>();
+    private final List<Operator> operators;
+    private final List<String> operatorStates = new ArrayList<>();
+
+    StateSnapshot(State state, List<Operator> operators) {
+        this.stateNodes = new ArrayList<>(state.stateNodeInput.get());
+        for (StateNode stateNode : stateNodes)
+            stateNodeCopies.add(stateNode.copy());
+
+        this.operators = new ArrayList<>(operators);
+        for (Operator operator : operators) {
+            StringWriter writer = new StringWriter();
+            operator.storeToFile(new PrintWriter(writer));
+            operatorStates.add(writer.toString());
+        }
+    }
+
+    void restore() {
+        for (int i = 0; i < stateNodes.size(); i++)
+            stateNodes.get(i).assignFromWithoutID(stateNodeCopies.get(i));
+
+        for (int i = 0; i < operators.size(); i++) {
+            try {
+                operators.get(i).restoreFromFile(new JSONObject(operatorStates.get(i)));
+            } catch (JSONException e) {
+                throw new IllegalStateException("Cannot restore operator " + operators.get(i).getID(), e);
+            }
+        }
+    }
+
+}
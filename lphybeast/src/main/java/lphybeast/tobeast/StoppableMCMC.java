@@ -0,0 +1,33 @@
+package lphybeast.tobeast;
+
+import beast.core.Description;
+import beast.core.Input;
+import beast.core.MCMC;
+import lphybeast.tobeast.loggers.ESSStoppingLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The MCMC stops early, when any of {@link ESSStoppingLogger} requests.
+ * The requested chain length is the upper limit.
+ */
+@Description("MCMC which stops early when any of its stopping criteria is satisfied.")
+public class StoppableMCMC extends MCMC {
+
+    final public Input<List<ESSStoppingLogger>> stopByInput = new Input<>("stopBy",
+            "the stopping criteria, which are also loggers.", new ArrayList<>());
+
+    @Override
+    protected void callUserFunction(final long sample) {
+        super.callUserFunction(sample);
+        for (ESSStoppingLogger stopBy : stopByInput.get()) {
+            if (stopBy.shouldStop()) {
+                // doLoop runs while sampleNr <= chainLength
+                chainLength = sample;
+                return;
+            }
+        }
+    }
+
+}
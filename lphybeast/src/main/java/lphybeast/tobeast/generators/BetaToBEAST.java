@@ -1,12 +1,17 @@
 package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.math.distributions.Prior;
 import lphy.core.distributions.Beta;
+import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class BetaToBEAST implements GeneratorToBEAST<Beta, Prior> {
     @Override
     public Prior generatorToBEAST(Beta generator, BEASTInterface value, BEASTContext context) {
@@ -17,6 +22,14 @@ public class BetaToBEAST implements GeneratorToBEAST<Beta, Prior> {
         return BEASTContext.createPrior(betaDistribution, (RealParameter) value);
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(Beta generator, BEASTContext context) {
+        Map<Value, Class<? extends Parameter>> types = new HashMap<>();
+        types.put(generator.getParams().get("alpha"), RealParameter.class);
+        types.put(generator.getParams().get("beta"), RealParameter.class);
+        return types;
+    }
+
     @Override
     public Class<Beta> getGeneratorClass() {
         return Beta.class;
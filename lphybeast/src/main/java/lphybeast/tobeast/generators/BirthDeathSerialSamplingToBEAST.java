@@ -1,14 +1,20 @@
 package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.Parameter;
+import beast.core.parameter.RealParameter;
 import beast.evolution.tree.Tree;
 import beast.math.distributions.MRCAPrior;
 import beast.math.distributions.Prior;
 import lphy.evolution.birthdeath.BirthDeathSerialSamplingTree;
+import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 import bdtree.likelihood.BirthDeathSequentialSampling;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class BirthDeathSerialSamplingToBEAST implements
         GeneratorToBEAST<BirthDeathSerialSamplingTree, BirthDeathSequentialSampling> {
 
@@ -44,6 +50,17 @@ public class BirthDeathSerialSamplingToBEAST implements
         return beastBDSS;
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(BirthDeathSerialSamplingTree generator, BEASTContext context) {
+        Map<Value, Class<? extends Parameter>> types = new HashMap<>();
+        types.put(generator.getBirthRate(), RealParameter.class);
+        types.put(generator.getDeathRate(), RealParameter.class);
+        types.put(generator.getRho(), RealParameter.class);
+        types.put(generator.getPsi(), RealParameter.class);
+        types.put(generator.getRootAge(), RealParameter.class);
+        return types;
+    }
+
     @Override
     public Class<BirthDeathSerialSamplingTree> getGeneratorClass() {
         return BirthDeathSerialSamplingTree.class;
@@ -1,12 +1,16 @@
 package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.math.distributions.Prior;
 import lphy.core.distributions.Dirichlet;
+import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
+import java.util.Map;
+
 public class DirichletToBEAST implements GeneratorToBEAST<Dirichlet, Prior> {
     @Override
     public Prior generatorToBEAST(Dirichlet generator, BEASTInterface value, BEASTContext context) {
@@ -17,6 +21,11 @@ public class DirichletToBEAST implements GeneratorToBEAST<Dirichlet, Prior> {
         return BEASTContext.createPrior(beastDirichlet, (RealParameter) value);
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(Dirichlet generator, BEASTContext context) {
+        return Map.of(generator.getConcentration(), RealParameter.class);
+    }
+
     @Override
     public Class<Dirichlet> getGeneratorClass() {
         return Dirichlet.class;
@@ -9,7 +9,6 @@ import lphy.graphicalModel.GraphicalModelNode;
 import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
-import lphybeast.SliceFactory;
 
 public class ExpMarkovChainToBEAST implements GeneratorToBEAST<ExpMarkovChain, MarkovChainDistribution> {
     @Override
@@ -26,7 +25,7 @@ public class ExpMarkovChainToBEAST implements GeneratorToBEAST<ExpMarkovChain, M
             context.removeBEASTObject(firstV);
 
             // create theta[0]
-            Slice feastSlice = SliceFactory.createSlice(value,0, firstValue.getCanonicalId());
+            Slice feastSlice = context.getSliceFactory().getSlice(value, 0, firstValue.getCanonicalId());
 
             // replace Prior x = theta[0]
             Generator dist = firstValue.getGenerator();
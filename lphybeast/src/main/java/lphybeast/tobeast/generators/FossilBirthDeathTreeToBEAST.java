@@ -1,6 +1,7 @@
 package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.evolution.speciation.SABirthDeathModel;
 import beast.evolution.tree.Tree;
@@ -10,6 +11,9 @@ import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class FossilBirthDeathTreeToBEAST implements
         GeneratorToBEAST<FossilBirthDeathTree, SABirthDeathModel> {
 
@@ -70,6 +74,16 @@ public class FossilBirthDeathTreeToBEAST implements
         context.addStateNode(originParameter, timeTree, true);
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(FossilBirthDeathTree generator, BEASTContext context) {
+        Map<Value, Class<? extends Parameter>> types = new HashMap<>();
+        types.put(generator.getBirthRate(), RealParameter.class);
+        types.put(generator.getDeathRate(), RealParameter.class);
+        types.put(generator.getRho(), RealParameter.class);
+        types.put(generator.getPsi(), RealParameter.class);
+        return types;
+    }
+
     @Override
     public Class<FossilBirthDeathTree> getGeneratorClass() {
         return FossilBirthDeathTree.class;
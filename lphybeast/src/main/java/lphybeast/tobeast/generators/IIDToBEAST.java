@@ -8,12 +8,14 @@ import lphy.core.distributions.Bernoulli;
 import lphy.core.distributions.IID;
 import lphy.graphicalModel.GenerativeDistribution;
 import lphy.graphicalModel.GraphicalModelNode;
+import lphy.graphicalModel.Value;
 import lphy.util.LoggerUtils;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class IIDToBEAST implements GeneratorToBEAST<IID, BEASTInterface> {
     @Override
@@ -72,6 +74,15 @@ public class IIDToBEAST implements GeneratorToBEAST<IID, BEASTInterface> {
         }
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(IID generator, BEASTContext context) {
+        // the hyper-parameters are shared by the base distribution
+        GenerativeDistribution baseDistribution = generator.getBaseDistribution();
+        GeneratorToBEAST toBEAST = context.getGeneratorToBEAST(baseDistribution);
+        if (toBEAST == null) return Map.of();
+        return toBEAST.getParameterTypes(baseDistribution, context);
+    }
+
     @Override
     public Class<IID> getGeneratorClass() {
         return IID.class;
@@ -1,13 +1,18 @@
 package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.math.distributions.LogNormalDistributionModel;
 import beast.math.distributions.Prior;
 import lphy.core.distributions.LogNormal;
+import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class LogNormalToBEAST implements GeneratorToBEAST<LogNormal, Prior> {
     @Override
     public Prior generatorToBEAST(LogNormal generator, BEASTInterface value, BEASTContext context) {
@@ -19,6 +24,14 @@ public class LogNormalToBEAST implements GeneratorToBEAST<LogNormal, Prior> {
         return BEASTContext.createPrior(logNormalDistributionModel, (RealParameter) value);
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(LogNormal generator, BEASTContext context) {
+        Map<Value, Class<? extends Parameter>> types = new HashMap<>();
+        types.put(generator.getMeanLog(), RealParameter.class);
+        types.put(generator.getSDLog(), RealParameter.class);
+        return types;
+    }
+
     @Override
     public Class<LogNormal> getGeneratorClass() {
         return LogNormal.class;
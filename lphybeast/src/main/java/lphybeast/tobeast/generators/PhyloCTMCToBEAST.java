@@ -1,6 +1,7 @@
 package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.evolution.alignment.AlignmentFromTrait;
 import beast.evolution.branchratemodel.StrictClockModel;
@@ -10,6 +11,7 @@ import beast.evolution.datatype.UserDataType;
 import beast.evolution.likelihood.AncestralStateTreeLikelihood;
 import beast.evolution.likelihood.GenericTreeLikelihood;
 import beast.evolution.likelihood.ThreadedTreeLikelihood;
+import beast.evolution.likelihood.TreeLikelihood;
 import beast.evolution.operators.UpDownOperator;
 import beast.evolution.sitemodel.SiteModel;
 import beast.evolution.substitutionmodel.SVSGeneralSubstitutionModelLogger;
@@ -34,9 +36,13 @@ import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
+import java.util.*;
+
 public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTreeLikelihood> {
 
     private static final String LOCATION = "location";
+    // each thread of ThreadedTreeLikelihood should have enough patterns to compensate the coordination
+    public static final int MIN_PATTERNS_PER_THREAD = 100;
 
     public GenericTreeLikelihood generatorToBEAST(PhyloCTMC phyloCTMC, BEASTInterface value, BEASTContext context) {
 
@@ -44,7 +50,7 @@ public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTree
             // for discrete phylogeography
             return createAncestralStateTreeLikelihood(phyloCTMC, value, context);
         } else {
-            return createThreadedTreeLikelihood(phyloCTMC, value, context);
+            return createTreeLikelihood(phyloCTMC, value, context);
         }
 
     }
@@ -117,11 +123,21 @@ public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTree
     }
 
 
-    private ThreadedTreeLikelihood createThreadedTreeLikelihood(PhyloCTMC phyloCTMC, BEASTInterface value, BEASTContext context) {
-        ThreadedTreeLikelihood treeLikelihood = new ThreadedTreeLikelihood();
+    private GenericTreeLikelihood createTreeLikelihood(PhyloCTMC phyloCTMC, BEASTInterface value, BEASTContext context) {
 
         assert value instanceof beast.evolution.alignment.Alignment;
         beast.evolution.alignment.Alignment alignment = (beast.evolution.alignment.Alignment)value;
+
+        GenericTreeLikelihood treeLikelihood;
+        int threads = getThreadCount(phyloCTMC, alignment, context);
+        if (threads == 1) {
+            // small partition
+            treeLikelihood = new TreeLikelihood();
+        } else {
+            treeLikelihood = new ThreadedTreeLikelihood();
+            if (threads > 1)
+                treeLikelihood.setInputValue("threads", threads);
+        }
         treeLikelihood.setInputValue("data", alignment);
 
         constructTreeAndBranchRate(phyloCTMC, treeLikelihood, context);
@@ -138,6 +154,55 @@ public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTree
     }
 
 
+    /**
+     * The threads of this partition shared from the thread budget by {@link BEASTContext#getLikelihoodThreads(Generator)},
+     * and then bounded by {@link #MIN_PATTERNS_PER_THREAD}.
+     * @return  the number of threads for the likelihood of this partition,
+     *          1 to use the plain TreeLikelihood, or -1 to use the default of ThreadedTreeLikelihood
+     *          if the thread budget is not given.
+     */
+    private int getThreadCount(PhyloCTMC phyloCTMC, beast.evolution.alignment.Alignment alignment, BEASTContext context) {
+        int threads = context.getLikelihoodThreads(phyloCTMC);
+        if (threads < 1)
+            return -1;
+        threads = Math.min(threads, alignment.getPatternCount() / MIN_PATTERNS_PER_THREAD);
+        return Math.max(1, threads);
+    }
+
+    /**
+     * @return  the costs of all partitions keyed by their {@link PhyloCTMC}, in the order of alignments,
+     *          excluding discrete traits.
+     * @see BEASTContext#getPartitionCosts()
+     */
+    public static Map<Generator, Double> getPartitionCosts(BEASTContext context) {
+        Map<Generator, Double> costs = new LinkedHashMap<>();
+        for (Value<lphy.evolution.alignment.Alignment> alignmentValue : context.getAlignments()) {
+            Generator generator = alignmentValue.getGenerator();
+            BEASTInterface beastAlignment = context.getBEASTObject(alignmentValue);
+            if (generator instanceof PhyloCTMC && !costs.containsKey(generator) &&
+                    beastAlignment instanceof beast.evolution.alignment.Alignment &&
+                    !SequenceTypeFactory.INSTANCE.isStandardDataType(((PhyloCTMC) generator).getDataType()))
+                costs.put(generator, BEASTContext.getLikelihoodCost((beast.evolution.alignment.Alignment) beastAlignment,
+                        getCategoryCount((PhyloCTMC) generator)));
+        }
+        return costs;
+    }
+
+    /**
+     * @return  the number of categories of the discretized gamma, or 1 if no site rates.
+     */
+    public static int getCategoryCount(PhyloCTMC phyloCTMC) {
+        Value<Double[]> siteRates = phyloCTMC.getSiteRates();
+        if (siteRates != null) {
+            Generator generator = siteRates.getGenerator();
+            if (generator instanceof IID)
+                generator = ((IID<?>) generator).getBaseDistribution();
+            if (generator instanceof DiscretizedGamma)
+                return ((DiscretizedGamma) generator).getNcat().value();
+        }
+        return 1;
+    }
+
     /**
      * Create tree and clock rate inside this tree likelihood.
      * @param phyloCTMC
@@ -327,6 +392,20 @@ public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTree
         }
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(PhyloCTMC phyloCTMC, BEASTContext context) {
+        Value<Double[]> siteRates = phyloCTMC.getSiteRates();
+        if (siteRates != null) {
+            // shape of the discretized gamma in SiteModel, see constructSiteModel
+            Generator generator = siteRates.getGenerator();
+            if (generator instanceof IID)
+                generator = ((IID<?>) generator).getBaseDistribution();
+            if (generator instanceof DiscretizedGamma)
+                return Map.of(((DiscretizedGamma) generator).getShape(), RealParameter.class);
+        }
+        return Map.of();
+    }
+
     @Override
     public Class<PhyloCTMC> getGeneratorClass() {
         return PhyloCTMC.class;
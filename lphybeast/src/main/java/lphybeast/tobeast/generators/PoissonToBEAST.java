@@ -2,12 +2,16 @@ package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
 import beast.core.parameter.Parameter;
+import beast.core.parameter.RealParameter;
 import beast.math.distributions.Prior;
 import lphy.core.distributions.Poisson;
+import lphy.graphicalModel.Value;
 import lphy.util.LoggerUtils;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
+import java.util.Map;
+
 public class PoissonToBEAST implements GeneratorToBEAST<Poisson, Prior> {
     @Override
     public Prior generatorToBEAST(Poisson generator, BEASTInterface value, BEASTContext context) {
@@ -42,6 +46,11 @@ public class PoissonToBEAST implements GeneratorToBEAST<Poisson, Prior> {
         return BEASTContext.createPrior(poisson, (Parameter) value);
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(Poisson generator, BEASTContext context) {
+        return Map.of(generator.getLambda(), RealParameter.class);
+    }
+
     @Override
     public Class<Poisson> getGeneratorClass() {
         return Poisson.class;
@@ -2,14 +2,18 @@ package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
 import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.Parameter;
 import beast.core.parameter.RealParameter;
 import beast.evolution.tree.coalescent.TreeIntervals;
 import lphy.evolution.coalescent.SkylineCoalescent;
+import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SkylineToBSP implements
         GeneratorToBEAST<SkylineCoalescent, beast.evolution.tree.coalescent.BayesianSkyline> {
@@ -71,6 +75,15 @@ public class SkylineToBSP implements
         return bsp;
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(SkylineCoalescent coalescent, BEASTContext context) {
+        Map<Value, Class<? extends Parameter>> types = new HashMap<>();
+        types.put(coalescent.getTheta(), RealParameter.class);
+        if (coalescent.getGroupSizes() != null)
+            types.put(coalescent.getGroupSizes(), IntegerParameter.class);
+        return types;
+    }
+
     @Override
     public Class<SkylineCoalescent> getGeneratorClass() {
         return SkylineCoalescent.class;
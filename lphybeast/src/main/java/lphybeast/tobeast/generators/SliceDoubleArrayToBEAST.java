@@ -9,7 +9,6 @@ import lphy.graphicalModel.GraphicalModelNode;
 import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
-import lphybeast.SliceFactory;
 
 public class SliceDoubleArrayToBEAST implements GeneratorToBEAST<SliceDoubleArray, Slice> {
     @Override
@@ -19,7 +18,7 @@ public class SliceDoubleArrayToBEAST implements GeneratorToBEAST<SliceDoubleArra
         Integer end =  slice.end().value();
         Integer count = end - start + 1;
 
-        return SliceFactory.createSlice(context.getBEASTObject(slice.array()),
+        return context.getSliceFactory().getSlice(context.getBEASTObject(slice.array()),
                 start, count, slice.getUniqueId());
     }
 
@@ -1,20 +1,43 @@
 package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.Parameter;
+import beast.math.distributions.Prior;
 import beast.util.BEASTVector;
 import lphy.core.distributions.VectorizedDistribution;
 import lphy.graphicalModel.GenerativeDistribution;
 import lphy.graphicalModel.GraphicalModelNode;
+import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class VectorizedDistributionToBEAST implements GeneratorToBEAST<VectorizedDistribution, BEASTInterface> {
     @Override
     public BEASTInterface generatorToBEAST(VectorizedDistribution generator, BEASTInterface value, BEASTContext context) {
 
+        List<GenerativeDistribution> generativeDistributionList = generator.getComponentDistributions();
+
+        // i.i.d. scalars in one parameter, see CompoundVectorToBEAST
+        if (value instanceof Parameter) {
+            if (generativeDistributionList.size() != ((Parameter) value).getDimension())
+                throw new IllegalArgumentException("Expecting component distribution sizes and parameter dimension to match!");
+            if (!isSharedDistribution(generativeDistributionList))
+                throw new IllegalArgumentException("Expecting the component distributions to be shared by the parameter " +
+                        value.getID());
+
+            GenerativeDistribution generativeDistribution = generativeDistributionList.get(0);
+            GeneratorToBEAST toBEAST = context.getGeneratorToBEAST(generativeDistribution);
+            BEASTInterface beastGenerator = toBEAST.generatorToBEAST(generativeDistribution, value, context);
+            if ( !(beastGenerator instanceof Prior) )
+                throw new IllegalArgumentException("Expecting Prior to be generated ! " + beastGenerator.getClass().getSimpleName());
+            return beastGenerator;
+        }
+
         List<BEASTInterface> values = null;
         if (value instanceof BEASTVector) {
             values = ((BEASTVector)value).getObjectList();
@@ -22,8 +45,6 @@ public class VectorizedDistributionToBEAST implements GeneratorToBEAST<Vectorize
             throw new IllegalArgumentException("Expecting BEASTVector value from VectorizedDistribution");
         }
 
-        List<GenerativeDistribution> generativeDistributionList = generator.getComponentDistributions();
-
         if (generativeDistributionList.size() != values.size()) throw new IllegalArgumentException("Expecting value and base distribution list sizes to match!");
 
         List<BEASTInterface> beastGenerators = new ArrayList<>();
@@ -40,6 +61,39 @@ public class VectorizedDistributionToBEAST implements GeneratorToBEAST<Vectorize
         return new BEASTVector(beastGenerators);
     }
 
+    /**
+     * @return  true if all components have the same class and the same input values,
+     *          so that the components of the vector are i.i.d.
+     */
+    public static boolean isSharedDistribution(List<GenerativeDistribution> generativeDistributionList) {
+        GenerativeDistribution first = generativeDistributionList.get(0);
+        Map<String, Value> firstParams = first.getParams();
+        for (GenerativeDistribution generativeDistribution : generativeDistributionList) {
+            if (generativeDistribution.getClass() != first.getClass())
+                return false;
+            Map<String, Value> params = generativeDistribution.getParams();
+            if (!params.keySet().equals(firstParams.keySet()))
+                return false;
+            for (Map.Entry<String, Value> entry : params.entrySet()) {
+                if (entry.getValue() != firstParams.get(entry.getKey()))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(VectorizedDistribution generator, BEASTContext context) {
+        Map<Value, Class<? extends Parameter>> types = new HashMap<>();
+        List<GenerativeDistribution> generativeDistributionList = generator.getComponentDistributions();
+        for (GenerativeDistribution generativeDistribution : generativeDistributionList) {
+            GeneratorToBEAST toBEAST = context.getGeneratorToBEAST(generativeDistribution);
+            if (toBEAST != null)
+                types.putAll(toBEAST.getParameterTypes(generativeDistribution, context));
+        }
+        return types;
+    }
+
     @Override
     public Class<VectorizedDistribution> getGeneratorClass() {
         return VectorizedDistribution.class;
@@ -2,12 +2,18 @@ package lphybeast.tobeast.generators;
 
 import beast.core.BEASTInterface;
 import beast.core.Function;
+import beast.core.parameter.IntegerParameter;
+import beast.core.parameter.Parameter;
+import beast.core.parameter.RealParameter;
 import beast.math.distributions.Prior;
 import lphy.core.distributions.WeightedDirichlet;
 import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class WeightedDirichletToBEAST implements GeneratorToBEAST<WeightedDirichlet, Prior> {
     @Override
     public Prior generatorToBEAST(WeightedDirichlet generator, BEASTInterface value, BEASTContext context) {
@@ -22,6 +28,14 @@ public class WeightedDirichletToBEAST implements GeneratorToBEAST<WeightedDirich
         return BEASTContext.createPrior(beastDirichlet, (Function) value);
     }
 
+    @Override
+    public Map<Value, Class<? extends Parameter>> getParameterTypes(WeightedDirichlet generator, BEASTContext context) {
+        Map<Value, Class<? extends Parameter>> types = new HashMap<>();
+        types.put(generator.getConcentration(), RealParameter.class);
+        types.put(generator.getWeights(), IntegerParameter.class);
+        return types;
+    }
+
     @Override
     public Class<WeightedDirichlet> getGeneratorClass() {
         return WeightedDirichlet.class;
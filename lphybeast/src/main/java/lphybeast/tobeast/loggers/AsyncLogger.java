@@ -0,0 +1,205 @@
+package lphybeast.tobeast.loggers;
+
+import beast.core.*;
+import beast.core.util.Log;
+import beast.evolution.tree.Tree;
+import beast.util.Randomizer;
+
+import java.io.*;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The file logger which writes on a background thread, so that the I/O,
+ * e.g. tree logging on network filesystems, is not in the critical path of MCMC.
+ * At every log, the loggables are snapshot into bytes in the MCMC thread,
+ * because their values change in the next state, and the snapshot is put into a buffer bounded by bytes,
+ * so that the memory is the same for a trace log and a log of large trees.
+ * The background thread writes the snapshots through a large buffer, and the file is the same as {@link Logger}.
+ * If the buffer is full, the MCMC waits, so that no sample is lost.
+ * If a write fails, the error is reported once, and the later samples are dropped.
+ * In the resume mode, it logs synchronously the same as {@link Logger}.
+ */
+@Description("Log to a file on a background thread through a buffer of samples and large buffered writes.")
+public class AsyncLogger extends Logger {
+
+    final public Input<Integer> bufferSizeInput = new Input<>("bufferSize",
+            "the size (bytes) of the samples waiting for the writer, before the MCMC waits.", 1 << 25);
+    final public Input<Integer> writeBufferSizeInput = new Input<>("writeBufferSize",
+            "the size (bytes) of the buffer of file writes.", 1 << 20);
+
+    // the signal to stop the writer, compared by identity
+    private static final byte[] END = new byte[0];
+
+    private BlockingQueue<byte[]> samples;
+    // the bytes of samples which can be put before the MCMC waits
+    private Semaphore freeBytes;
+    private int bufferSize;
+    private Thread writer;
+    private volatile IOException writeError;
+    private boolean errorReported;
+
+    // reused to snapshot the loggables
+    private final ByteArrayOutputStream snapshotBytes = new ByteArrayOutputStream(8192);
+    private final PrintStream snapshot = new PrintStream(snapshotBytes);
+
+    private List<BEASTObject> loggables;
+    // no sample number in the tree mode
+    private boolean treeMode;
+    private int logEvery;
+    // if true, then use Logger, e.g. resume mode
+    private boolean synchronous;
+
+    @Override
+    public void initAndValidate() {
+        if (fileNameInput.get() == null)
+            throw new IllegalArgumentException("AsyncLogger requires a file name, use Logger for the screen.");
+        super.initAndValidate();
+    }
+
+    @Override
+    public void init() throws IOException {
+        synchronous = FILE_MODE == LogFileMode.resume;
+        if (synchronous) {
+            super.init();
+            return;
+        }
+
+        loggables = loggersInput.get();
+        logEvery = everyInput.get();
+        LOGMODE mode = modeInput.get();
+        treeMode = mode == LOGMODE.tree ||
+                (mode == LOGMODE.autodetect && loggables.size() == 1 && loggables.get(0) instanceof Tree);
+
+        File file = new File(getFileName());
+        if (file.exists() && (FILE_MODE == LogFileMode.only_new || FILE_MODE == LogFileMode.only_new_or_exit))
+            throw new IOException("Trying to write file " + file + " but the file already exists. " +
+                    "Perhaps use the -overwrite flag ?");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), writeBufferSizeInput.get());
+
+        samples = new LinkedBlockingQueue<>();
+        bufferSize = Math.max(1, bufferSizeInput.get());
+        freeBytes = new Semaphore(bufferSize);
+        writer = new Thread(() -> write(out), "AsyncLogger-" + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+
+        // header
+        if (!treeMode)
+            snapshot.print("Sample\t");
+        for (BEASTObject loggable : loggables)
+            ((Loggable) loggable).init(snapshot);
+        put(true);
+    }
+
+    // the file name as in BEAST, with the seed and the prefix from the command line
+    private String getFileName() {
+        String fileName = fileNameInput.get().replace("$(seed)", Long.toString(Randomizer.getSeed()));
+        String prefix = System.getProperty("file.name.prefix");
+        if (prefix != null && !new File(fileName).isAbsolute())
+            fileName = prefix + File.separator + fileName;
+        return fileName;
+    }
+
+    @Override
+    public void log(long sampleNr) {
+        if (synchronous) {
+            super.log(sampleNr);
+            return;
+        }
+        if (sampleNr < 0 || sampleNr % logEvery > 0)
+            return;
+
+        if (!treeMode)
+            snapshot.print(sampleNr + "\t");
+        for (BEASTObject loggable : loggables)
+            ((Loggable) loggable).log(sampleNr, snapshot);
+        put(true);
+    }
+
+    @Override
+    public void close() {
+        if (synchronous) {
+            super.close();
+            return;
+        }
+        // written as it is, e.g. "End;" of trees without a new line
+        for (BEASTObject loggable : loggables)
+            ((Loggable) loggable).close(snapshot);
+        put(false);
+
+        try {
+            samples.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reportError();
+    }
+
+    /**
+     * @return  the error of the background writer, or null if every sample is written.
+     */
+    IOException getWriteError() {
+        return writeError;
+    }
+
+    private void reportError() {
+        if (writeError != null && !errorReported) {
+            errorReported = true;
+            Log.err.println("Fail to write log " + fileNameInput.get() + " : " + writeError.getMessage() +
+                    ", the later samples are not logged.");
+        }
+    }
+
+    // put the snapshot into the buffer, where a line is trimmed as in Logger
+    private void put(boolean isLine) {
+        snapshot.flush();
+        byte[] bytes = snapshotBytes.toByteArray();
+        snapshotBytes.reset();
+        if (isLine) {
+            String line = new String(bytes).trim();
+            bytes = line.isEmpty() ? new byte[0] : (line + System.lineSeparator()).getBytes();
+        }
+        if (bytes.length == 0)
+            return;
+        reportError();
+        try {
+            // a sample larger than the buffer waits for the empty buffer
+            freeBytes.acquire(Math.min(bytes.length, bufferSize));
+            samples.put(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the background thread, which keeps taking snapshots after an error, so that the MCMC never waits forever
+    private void write(OutputStream out) {
+        try {
+            while (true) {
+                byte[] bytes = samples.take();
+                if (bytes == END)
+                    break;
+                if (writeError == null) {
+                    try {
+                        out.write(bytes);
+                    } catch (IOException e) {
+                        writeError = e;
+                    }
+                }
+                freeBytes.release(Math.min(bytes.length, bufferSize));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (writeError == null) writeError = e;
+            }
+        }
+    }
+
+}
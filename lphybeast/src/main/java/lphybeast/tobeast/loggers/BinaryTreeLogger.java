@@ -0,0 +1,254 @@
+package lphybeast.tobeast.loggers;
+
+import beast.core.*;
+import beast.core.util.Log;
+import beast.evolution.branchratemodel.BranchRateModel;
+import beast.evolution.tree.Node;
+import beast.evolution.tree.TreeInterface;
+import beast.util.Randomizer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Log a tree in a compact binary format, instead of a Newick string per sample,
+ * which can be converted back to NEXUS by {@link BinaryTreeToNexus}.
+ * The taxon table is written once in the header, and then every sample has
+ * the topology as the parent of every node, which is only written for the nodes changed since the last sample,
+ * the heights of internal nodes (leaf heights only if changed),
+ * and the optional metadata columns of a value per node.
+ * The file is gzipped by default.
+ * <pre>
+ * header: MAGIC, VERSION, flags, leafCount, nodeCount, leaf IDs, columnCount, column names
+ * sample: SAMPLE, sampleNr, topology, leaf heights, internal heights, columns
+ * end:    END
+ * </pre>
+ * where node numbers and counts are unsigned varints, and the root has the parent nodeCount.
+ * The binary log cannot be resumed, so in the resume mode the tree is logged by {@link Logger}
+ * in NEXUS to a sibling file *.resume.trees without the metadata columns.
+ */
+@Description("Log a tree in a compact binary format, which can be converted to NEXUS by BinaryTreeToNexus.")
+public class BinaryTreeLogger extends Logger {
+
+    final public Input<List<Function>> metadataInput = new Input<>("metadata",
+            "the values of nodes to log as columns, the dimension of which is the number of nodes.", new ArrayList<>());
+    final public Input<BranchRateModel.Base> clockModelInput = new Input<>("branchratemodel",
+            "the rates of branches to log as the column 'rate'.");
+    final public Input<Boolean> singlePrecisionInput = new Input<>("singlePrecision",
+            "log heights and metadata as float instead of double.", false);
+    final public Input<Boolean> compressInput = new Input<>("compress", "gzip the file.", true);
+
+    public static final int MAGIC = 0x4C504254; // LPBT
+    public static final int VERSION = 1;
+    public static final byte FLAG_SINGLE_PRECISION = 1;
+
+    public static final byte SAMPLE = 1;
+    public static final byte END = 0;
+
+    public static final byte UNCHANGED = 0;
+    // only the changed nodes and their parents
+    public static final byte SPARSE = 1;
+    public static final byte FULL = 2;
+
+    private TreeInterface tree;
+    private DataOutputStream out;
+    private boolean singlePrecision;
+    private int logEvery;
+
+    // the last logged sample
+    private int[] parents;
+    private double[] leafHeights;
+    // if true, then use Logger in the resume mode
+    private boolean newick;
+
+    @Override
+    public void initAndValidate() {
+        if (fileNameInput.get() == null)
+            throw new IllegalArgumentException("BinaryTreeLogger requires a file name.");
+        if (loggersInput.get().size() != 1 || !(loggersInput.get().get(0) instanceof TreeInterface))
+            throw new IllegalArgumentException("BinaryTreeLogger logs one tree only.");
+        super.initAndValidate();
+        tree = (TreeInterface) loggersInput.get().get(0);
+    }
+
+    @Override
+    public void init() throws IOException {
+        newick = FILE_MODE == LogFileMode.resume;
+        if (newick) {
+            String fileName = getResumeFileName(fileNameInput.get());
+            Log.warning.println("The binary tree log cannot be resumed, log the trees to " + fileName + " instead.");
+            fileNameInput.setValue(fileName, this);
+            super.init();
+            return;
+        }
+        logEvery = everyInput.get();
+        singlePrecision = singlePrecisionInput.get();
+
+        String fileName = fileNameInput.get().replace("$(seed)", Long.toString(Randomizer.getSeed()));
+        String prefix = System.getProperty("file.name.prefix");
+        if (prefix != null && !new File(fileName).isAbsolute())
+            fileName = prefix + File.separator + fileName;
+        File file = new File(fileName);
+        if (file.exists() && FILE_MODE != LogFileMode.overwrite)
+            throw new IOException("Trying to write file " + file + " but the file already exists. " +
+                    "Perhaps use the -overwrite flag ? The binary tree log cannot be resumed.");
+
+        OutputStream fileOut = new FileOutputStream(file);
+        if (compressInput.get())
+            fileOut = new GZIPOutputStream(fileOut, 1 << 16);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(singlePrecision ? FLAG_SINGLE_PRECISION : 0);
+        int leafCount = tree.getLeafNodeCount();
+        writeVarInt(out, leafCount);
+        writeVarInt(out, tree.getNodeCount());
+        Node[] nodes = tree.getNodesAsArray();
+        for (int i = 0; i < leafCount; i++)
+            out.writeUTF(nodes[i].getID() != null ? nodes[i].getID() : Integer.toString(i));
+
+        List<String> columns = new ArrayList<>();
+        for (Function metadata : metadataInput.get()) {
+            String id = ((BEASTInterface) metadata).getID();
+            columns.add(id != null ? id : "metadata" + columns.size());
+        }
+        if (clockModelInput.get() != null)
+            columns.add("rate");
+        writeVarInt(out, columns.size());
+        for (String column : columns)
+            out.writeUTF(column);
+
+        parents = null;
+        leafHeights = null;
+    }
+
+    /**
+     * @return  the NEXUS tree file in the resume mode, e.g. RSV2.resume.trees given RSV2.btrees.
+     */
+    public static String getResumeFileName(String fileName) {
+        int dot = fileName.lastIndexOf(".");
+        int sep = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf(File.separatorChar));
+        return (dot > sep ? fileName.substring(0, dot) : fileName) + ".resume.trees";
+    }
+
+    @Override
+    public void log(long sampleNr) {
+        if (newick) {
+            super.log(sampleNr);
+            return;
+        }
+        if (sampleNr < 0 || sampleNr % logEvery > 0)
+            return;
+        try {
+            writeSample(sampleNr);
+        } catch (IOException e) {
+            throw new RuntimeException("Fail to write the binary tree log " + fileNameInput.get(), e);
+        }
+    }
+
+    private void writeSample(long sampleNr) throws IOException {
+        Node[] nodes = tree.getNodesAsArray();
+        int nodeCount = nodes.length;
+        int leafCount = tree.getLeafNodeCount();
+
+        out.writeByte(SAMPLE);
+        out.writeLong(sampleNr);
+
+        // topology
+        int[] newParents = new int[nodeCount];
+        int changed = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            Node parent = nodes[i].getParent();
+            newParents[i] = parent == null ? nodeCount : parent.getNr();
+            if (parents == null || parents[i] != newParents[i])
+                changed++;
+        }
+        if (parents != null && changed == 0) {
+            out.writeByte(UNCHANGED);
+        } else if (parents != null && changed < nodeCount / 2) {
+            // a changed node takes two varints
+            out.writeByte(SPARSE);
+            writeVarInt(out, changed);
+            for (int i = 0; i < nodeCount; i++) {
+                if (parents[i] != newParents[i]) {
+                    writeVarInt(out, i);
+                    writeVarInt(out, newParents[i]);
+                }
+            }
+        } else {
+            out.writeByte(FULL);
+            for (int parent : newParents)
+                writeVarInt(out, parent);
+        }
+        parents = newParents;
+
+        // tip dates rarely change
+        boolean leafChanged = leafHeights == null;
+        for (int i = 0; i < leafCount && !leafChanged; i++)
+            leafChanged = leafHeights[i] != nodes[i].getHeight();
+        out.writeBoolean(leafChanged);
+        if (leafChanged) {
+            leafHeights = new double[leafCount];
+            for (int i = 0; i < leafCount; i++) {
+                leafHeights[i] = nodes[i].getHeight();
+                writeValue(leafHeights[i]);
+            }
+        }
+        for (int i = leafCount; i < nodeCount; i++)
+            writeValue(nodes[i].getHeight());
+
+        // metadata columns
+        for (Function metadata : metadataInput.get()) {
+            for (int i = 0; i < nodeCount; i++)
+                writeValue(metadata.getDimension() == nodeCount ? metadata.getArrayValue(i) : Double.NaN);
+        }
+        if (clockModelInput.get() != null) {
+            for (Node node : nodes)
+                writeValue(node.isRoot() ? Double.NaN : clockModelInput.get().getRateForBranch(node));
+        }
+    }
+
+    private void writeValue(double value) throws IOException {
+        if (singlePrecision)
+            out.writeFloat((float) value);
+        else
+            out.writeDouble(value);
+    }
+
+    @Override
+    public void close() {
+        if (newick) {
+            super.close();
+            return;
+        }
+        try {
+            out.writeByte(END);
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Fail to close the binary tree log " + fileNameInput.get(), e);
+        }
+    }
+
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Invalid varint");
+    }
+
+}
@@ -0,0 +1,230 @@
+package lphybeast.tobeast.loggers;
+
+import lphy.util.LoggerUtils;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPInputStream;
+
+import static lphybeast.tobeast.loggers.BinaryTreeLogger.*;
+
+/**
+ * Convert the log of {@link BinaryTreeLogger} to a NEXUS tree file in the same layout as BEAST tree loggers,
+ * with a translate block, and the metadata columns as [&amp;name=value] of nodes,
+ * so that it can be read by TreeAnnotator, Tracer or other downstream tools.
+ * If the binary log is truncated, e.g. the chain is still running, the complete samples are converted.
+ */
+@Command(name = "btrees2nexus", description = "Convert the binary tree log of LPhyBEAST to a NEXUS tree file.")
+public class BinaryTreeToNexus implements Callable<Integer> {
+
+    @Parameters(index = "0", paramLabel = "binary_trees", description = "the binary tree log, e.g. *.btrees.")
+    Path infile;
+    @Parameters(index = "1", paramLabel = "nexus_trees", arity = "0..1",
+            description = "the NEXUS tree file, default to replace the extension of the input by '.trees'.")
+    Path outfile;
+
+    public static void main(String[] args) {
+        int exitCode = new CommandLine(new BinaryTreeToNexus()).execute(args);
+        System.exit(exitCode);
+    }
+
+    @Override
+    public Integer call() throws IOException {
+        Path outPath = outfile;
+        if (outPath == null) {
+            String fileName = infile.getFileName().toString();
+            int dot = fileName.lastIndexOf(".");
+            outPath = infile.resolveSibling((dot > 0 ? fileName.substring(0, dot) : fileName) + ".trees");
+        }
+        int samples = convert(infile, outPath);
+        System.out.println("Convert " + samples + " trees from " + infile + " to " + outPath);
+        return 0;
+    }
+
+    /**
+     * @param in   the binary tree log, gzipped or not.
+     * @param out  the NEXUS tree file.
+     * @return  the number of trees converted.
+     */
+    public static int convert(Path in, Path out) throws IOException {
+        try (DataInputStream input = new DataInputStream(openInput(in));
+             PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+
+            if (input.readInt() != MAGIC)
+                throw new IOException(in + " is not a binary tree log of LPhyBEAST !");
+            int version = input.readUnsignedByte();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version + " of the binary tree log " + in);
+            boolean singlePrecision = (input.readByte() & FLAG_SINGLE_PRECISION) != 0;
+
+            int leafCount = readVarInt(input);
+            int nodeCount = readVarInt(input);
+            String[] taxa = new String[leafCount];
+            for (int i = 0; i < leafCount; i++)
+                taxa[i] = input.readUTF();
+            String[] columns = new String[readVarInt(input)];
+            for (int c = 0; c < columns.length; c++)
+                columns[c] = input.readUTF();
+
+            writeHeader(writer, taxa);
+
+            int[] parents = new int[nodeCount];
+            double[] heights = new double[nodeCount];
+            double[][] metadata = new double[columns.length][nodeCount];
+            int samples = 0;
+            try {
+                while (input.readByte() == SAMPLE) {
+                    long sampleNr = input.readLong();
+                    readSample(input, singlePrecision, leafCount, parents, heights, metadata);
+                    writer.println("tree STATE_" + sampleNr + " = " +
+                            toNewick(parents, heights, columns, metadata, leafCount, singlePrecision) + ";");
+                    samples++;
+                }
+            } catch (EOFException e) {
+                LoggerUtils.log.warning("The binary tree log " + in + " is truncated after " + samples + " trees.");
+            }
+            writer.println("End;");
+            return samples;
+        }
+    }
+
+    private static InputStream openInput(Path in) throws IOException {
+        InputStream input = new BufferedInputStream(Files.newInputStream(in), 1 << 16);
+        // gzip magic number
+        input.mark(2);
+        int b1 = input.read();
+        int b2 = input.read();
+        input.reset();
+        if (b1 == 0x1f && b2 == 0x8b)
+            return new BufferedInputStream(new GZIPInputStream(input, 1 << 16), 1 << 16);
+        return input;
+    }
+
+    // parents, heights and metadata keep the values of the last sample, which are updated here
+    private static void readSample(DataInput input, boolean singlePrecision, int leafCount, int[] parents,
+                                   double[] heights, double[][] metadata) throws IOException {
+        int nodeCount = parents.length;
+        byte topology = input.readByte();
+        if (topology == SPARSE) {
+            int changed = readVarInt(input);
+            for (int k = 0; k < changed; k++) {
+                int node = readVarInt(input);
+                parents[node] = readVarInt(input);
+            }
+        } else if (topology == FULL) {
+            for (int i = 0; i < nodeCount; i++)
+                parents[i] = readVarInt(input);
+        } else if (topology != UNCHANGED) {
+            throw new IOException("Invalid topology encoding " + topology);
+        }
+
+        if (input.readBoolean()) {
+            for (int i = 0; i < leafCount; i++)
+                heights[i] = readValue(input, singlePrecision);
+        }
+        for (int i = leafCount; i < nodeCount; i++)
+            heights[i] = readValue(input, singlePrecision);
+
+        for (double[] column : metadata) {
+            for (int i = 0; i < nodeCount; i++)
+                column[i] = readValue(input, singlePrecision);
+        }
+    }
+
+    private static double readValue(DataInput input, boolean singlePrecision) throws IOException {
+        return singlePrecision ? input.readFloat() : input.readDouble();
+    }
+
+    // the same as BEAST Tree#init
+    private static void writeHeader(PrintWriter writer, String[] taxa) {
+        writer.println("#NEXUS\n");
+        writer.println("Begin taxa;");
+        writer.println("\tDimensions ntax=" + taxa.length + ";");
+        writer.println("\t\tTaxlabels");
+        for (String taxon : taxa)
+            writer.println("\t\t\t" + taxon);
+        writer.println("\t\t\t;");
+        writer.println("End;");
+
+        writer.println("Begin trees;");
+        writer.println("\tTranslate");
+        for (int i = 0; i < taxa.length; i++)
+            writer.println("\t\t\t" + (i + 1) + " " + taxa[i] + (i < taxa.length - 1 ? "," : ""));
+        writer.println(";");
+    }
+
+    /**
+     * The Newick string of the tree, where leaves are labelled by their translate numbers.
+     * It is built without recursion, because the large trees can be too deep for the stack.
+     */
+    static String toNewick(int[] parents, double[] heights, String[] columns, double[][] metadata,
+                           int leafCount, boolean singlePrecision) {
+        int nodeCount = parents.length;
+        List<List<Integer>> children = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++)
+            children.add(new ArrayList<>(2));
+        int root = -1;
+        for (int i = 0; i < nodeCount; i++) {
+            if (parents[i] >= nodeCount)
+                root = i;
+            else
+                children.get(parents[i]).add(i);
+        }
+
+        StringBuilder newick = new StringBuilder(nodeCount * 24);
+        // node and the index of its next child
+        int[] nodeStack = new int[nodeCount];
+        int[] childStack = new int[nodeCount];
+        int top = 0;
+        nodeStack[0] = root;
+        childStack[0] = 0;
+        while (top >= 0) {
+            int node = nodeStack[top];
+            List<Integer> nodeChildren = children.get(node);
+            int next = childStack[top];
+            if (node < leafCount) {
+                newick.append(node + 1);
+            } else if (next < nodeChildren.size()) {
+                newick.append(next == 0 ? "(" : ",");
+                childStack[top]++;
+                top++;
+                nodeStack[top] = nodeChildren.get(next);
+                childStack[top] = 0;
+                continue;
+            } else {
+                newick.append(")");
+            }
+            appendMetadata(newick, node, columns, metadata, singlePrecision);
+            if (node != root)
+                newick.append(":").append(format(heights[parents[node]] - heights[node], singlePrecision));
+            top--;
+        }
+        return newick.toString();
+    }
+
+    private static void appendMetadata(StringBuilder newick, int node, String[] columns, double[][] metadata,
+                                       boolean singlePrecision) {
+        boolean first = true;
+        for (int c = 0; c < columns.length; c++) {
+            if (Double.isNaN(metadata[c][node]))
+                continue;
+            newick.append(first ? "[&" : ",").append(columns[c]).append("=")
+                    .append(format(metadata[c][node], singlePrecision));
+            first = false;
+        }
+        if (!first)
+            newick.append("]");
+    }
+
+    private static String format(double value, boolean singlePrecision) {
+        return singlePrecision ? Float.toString((float) value) : Double.toString(value);
+    }
+
+}
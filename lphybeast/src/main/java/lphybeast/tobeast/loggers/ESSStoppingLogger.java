@@ -0,0 +1,97 @@
+package lphybeast.tobeast.loggers;
+
+import beast.core.*;
+import lphybeast.tobeast.StoppableMCMC;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compute the streaming ESS of the posterior and key parameters at every log,
+ * after an adaptive burnin of the samples logged so far,
+ * and signal {@link StoppableMCMC} to stop the chain once all tracked statistics
+ * pass the threshold, or the wall-clock budget runs out.
+ * It logs the minimum ESS, so it can be used in a file logger.
+ */
+@Description("Stop the MCMC once the ESS of every tracked statistic passes a threshold, " +
+        "or the wall-clock budget runs out.")
+public class ESSStoppingLogger extends BEASTObject implements Loggable {
+
+    final public Input<List<Function>> functionsInput = new Input<>("arg",
+            "the statistics to track, such as the posterior.", new ArrayList<>(), Input.Validate.REQUIRED);
+    final public Input<Double> minESSInput = new Input<>("minESS",
+            "stop when the ESS of every statistic is at least this value, if <= 0 then ignore ESS.", 200.0);
+    final public Input<Double> maxTimeInput = new Input<>("maxTime",
+            "stop when the wall-clock time (in seconds) is over this value, if <= 0 then no time limit.", -1.0);
+    final public Input<Double> burninPercentageInput = new Input<>("burninPercentage",
+            "the percentage of the samples logged so far to ignore before computing ESS, " +
+                    "so that the burnin grows with the chain.", 10.0);
+
+    private List<StreamingESS> essList;
+    private long startTime;
+    private volatile boolean stop = false;
+
+    @Override
+    public void initAndValidate() {
+        essList = new ArrayList<>();
+        for (Function function : functionsInput.get()) {
+            for (int i = 0; i < function.getDimension(); i++)
+                essList.add(new StreamingESS(burninPercentageInput.get() / 100.0));
+        }
+    }
+
+    /**
+     * @return  true if the MCMC should stop.
+     */
+    public boolean shouldStop() {
+        return stop;
+    }
+
+    /**
+     * @return  the minimum ESS of all tracked statistics.
+     */
+    public double getMinESS() {
+        double min = Double.POSITIVE_INFINITY;
+        for (StreamingESS ess : essList)
+            min = Math.min(min, ess.getESS());
+        return essList.isEmpty() ? 0 : min;
+    }
+
+    @Override
+    public void init(PrintStream out) {
+        startTime = System.currentTimeMillis();
+        stop = false;
+        out.print("minESS\t");
+    }
+
+    @Override
+    public void log(long sample, PrintStream out) {
+        int k = 0;
+        for (Function function : functionsInput.get()) {
+            for (int i = 0; i < function.getDimension(); i++)
+                essList.get(k++).add(function.getArrayValue(i));
+        }
+
+        double minESS = getMinESS();
+        out.print(minESS + "\t");
+
+        if (minESSInput.get() > 0 && minESS >= minESSInput.get()) {
+            if (!stop)
+                System.out.println("All ESS >= " + minESSInput.get() + " at sample " + sample + ", stopping the MCMC.");
+            stop = true;
+        }
+        double maxTime = maxTimeInput.get();
+        if (maxTime > 0 && (System.currentTimeMillis() - startTime) / 1000.0 > maxTime) {
+            if (!stop)
+                System.out.println("Run out of the time budget " + maxTime + " seconds at sample " +
+                        sample + ", stopping the MCMC, min ESS = " + minESS);
+            stop = true;
+        }
+    }
+
+    @Override
+    public void close(PrintStream out) {
+        // nothing to do
+    }
+}
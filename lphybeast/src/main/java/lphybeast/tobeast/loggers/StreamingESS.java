@@ -0,0 +1,131 @@
+package lphybeast.tobeast.loggers;
+
+/**
+ * Streaming effective sample size (ESS) in constant memory,
+ * using the batch means estimate of the asymptotic variance.
+ * A fixed number of batches is kept, and every time they are full,
+ * the adjacent batches are merged and the batch size is doubled,
+ * so that the batch size always grows with the number of samples.
+ * The burnin is adaptive, i.e. a fraction of the samples seen so far,
+ * which is discarded in whole batches from the start.
+ */
+public class StreamingESS {
+
+    // the max number of batches, must be even
+    static final int MAX_BATCHES = 32;
+    // do not trust the batch means until batches contain enough samples
+    static final int MIN_BATCH_SIZE = 8;
+
+    private final double burninFraction;
+
+    private final double[] batchSums = new double[MAX_BATCHES];
+    // the sums of squares to compute the variance after burnin
+    private final double[] batchSquares = new double[MAX_BATCHES];
+    private int nBatches = 0;
+    private long batchSize = 1;
+    private double currentSum = 0;
+    private double currentSquare = 0;
+    private long currentCount = 0;
+
+    private long n = 0;
+    // values are shifted by the 1st sample to keep the sums of squares accurate
+    private double shift = 0;
+
+    /**
+     * 10% burnin
+     */
+    public StreamingESS() {
+        this(0.1);
+    }
+
+    /**
+     * @param burninFraction  the fraction of the samples seen so far to discard, in [0, 1).
+     */
+    public StreamingESS(double burninFraction) {
+        if (burninFraction < 0 || burninFraction >= 1)
+            throw new IllegalArgumentException("The burnin fraction " + burninFraction + " has to be in [0, 1) !");
+        this.burninFraction = burninFraction;
+    }
+
+    public void add(double x) {
+        if (n == 0)
+            shift = x;
+        n++;
+        x -= shift;
+
+        currentSum += x;
+        currentSquare += x * x;
+        currentCount++;
+        if (currentCount == batchSize) {
+            batchSums[nBatches] = currentSum;
+            batchSquares[nBatches] = currentSquare;
+            nBatches++;
+            currentSum = 0;
+            currentSquare = 0;
+            currentCount = 0;
+            if (nBatches == MAX_BATCHES) {
+                // merge adjacent batches and double the batch size
+                for (int i = 0; i < MAX_BATCHES / 2; i++) {
+                    batchSums[i] = batchSums[2 * i] + batchSums[2 * i + 1];
+                    batchSquares[i] = batchSquares[2 * i] + batchSquares[2 * i + 1];
+                }
+                nBatches = MAX_BATCHES / 2;
+                batchSize *= 2;
+            }
+        }
+    }
+
+    /**
+     * @return  the ESS of the complete batches after burnin, or 0 if there are not enough samples.
+     */
+    public double getESS() {
+        int first = getFirstBatch();
+        int m = nBatches - first;
+        if (batchSize < MIN_BATCH_SIZE || m < 2)
+            return 0;
+        long count = m * batchSize;
+
+        double sum = 0;
+        double squares = 0;
+        for (int i = first; i < nBatches; i++) {
+            sum += batchSums[i];
+            squares += batchSquares[i];
+        }
+        double mean = sum / count;
+        double var = (squares - sum * mean) / (count - 1);
+        // a constant trace should not block the stopping rule
+        if (var <= 0)
+            return count;
+
+        double varBM = 0;
+        for (int i = first; i < nBatches; i++) {
+            double d = batchSums[i] / batchSize - mean;
+            varBM += d * d;
+        }
+        varBM /= (m - 1);
+
+        // asymptotic variance of the mean
+        double sigma2 = batchSize * varBM;
+        if (sigma2 <= 0)
+            return count;
+        return Math.min(count, count * var / sigma2);
+    }
+
+    // the index of the 1st batch after burnin
+    private int getFirstBatch() {
+        long burnin = (long) Math.ceil(burninFraction * n);
+        return (int) Math.min(nBatches, (burnin + batchSize - 1) / batchSize);
+    }
+
+    /**
+     * @return  the number of samples used by {@link #getESS()}, i.e. the complete batches after burnin.
+     */
+    public long getESSSampleCount() {
+        return (nBatches - getFirstBatch()) * batchSize;
+    }
+
+    public long getSampleCount() {
+        return n;
+    }
+
+}
@@ -0,0 +1,125 @@
+package lphybeast.tobeast.values;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@link List} views over LPhy arrays or primitive arrays,
+ * which are passed to the "value" input of BEAST parameters
+ * without copying the elements into intermediate lists.
+ * The primitive views box an element only when BEAST reads it.
+ */
+public final class ArrayViews {
+
+    private ArrayViews() { }
+
+    /**
+     * @param values  primitive values
+     * @return  the view of the primitive array.
+     */
+    public static List<Double> ofDoubles(final double[] values) {
+        return new View<>() {
+            @Override
+            public Double get(int index) {
+                return values[index];
+            }
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    /**
+     * @param values  primitive values
+     * @return  the view of the primitive array.
+     */
+    public static List<Integer> ofIntegers(final int[] values) {
+        return new View<>() {
+            @Override
+            public Integer get(int index) {
+                return values[index];
+            }
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    /**
+     * @param values  the numbers, which may mix Integer and Double.
+     * @return  the view converting every element to Double,
+     *          which is required by {@link beast.core.parameter.RealParameter}.
+     */
+    public static List<Double> asDoubles(final Number[] values) {
+        return new View<>() {
+            @Override
+            public Double get(int index) {
+                return values[index].doubleValue();
+            }
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    /**
+     * Concatenate the rows in order, such as a 2d matrix flattened row by row.
+     * The rows can have different lengths.
+     * @param rows  the arrays to concatenate
+     * @return  the view of all elements.
+     */
+    @SafeVarargs
+    public static <T> List<T> concat(final T[]... rows) {
+        // offsets[i] is the index of the first element of row i
+        final int[] offsets = new int[rows.length + 1];
+        for (int i = 0; i < rows.length; i++)
+            offsets[i + 1] = offsets[i] + rows[i].length;
+
+        return new View<>() {
+            @Override
+            public T get(int index) {
+                if (index < 0 || index >= size())
+                    throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+                int row = Arrays.binarySearch(offsets, index);
+                // skip empty rows which share the same offset
+                if (row >= 0) {
+                    while (offsets[row + 1] == index) row++;
+                } else {
+                    row = -row - 2;
+                }
+                return rows[row][index - offsets[row]];
+            }
+            @Override
+            public int size() {
+                return offsets[rows.length];
+            }
+        };
+    }
+
+    /**
+     * @param values  3d array
+     * @return  the view of all elements flattened by the 1st then 2nd dimension.
+     */
+    public static <T> List<T> flatten(final T[][][] values) {
+        if (values.length == 0)
+            return Collections.emptyList();
+        int n = 0;
+        for (T[][] matrix : values) n += matrix.length;
+        // typed as the rows of the 1st matrix, then overwritten
+        T[][] rows = Arrays.copyOf(values[0], n);
+        int r = 0;
+        for (T[][] matrix : values) {
+            for (T[] row : matrix) rows[r++] = row;
+        }
+        return concat(rows);
+    }
+
+    private static abstract class View<T> extends AbstractList<T> implements RandomAccess { }
+
+}
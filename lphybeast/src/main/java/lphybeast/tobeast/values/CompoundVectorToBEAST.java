@@ -1,25 +1,31 @@
 package lphybeast.tobeast.values;
 
 import beast.core.BEASTInterface;
+import beast.core.parameter.RealParameter;
 import beast.util.BEASTVector;
-import lphy.graphicalModel.CompoundVector;
-import lphy.graphicalModel.GraphicalModelNode;
-import lphy.graphicalModel.Value;
+import lphy.core.distributions.IID;
+import lphy.core.distributions.VectorizedDistribution;
+import lphy.graphicalModel.*;
 import lphy.graphicalModel.types.StringValue;
 import lphybeast.BEASTContext;
 import lphybeast.ValueToBEAST;
+import lphybeast.tobeast.generators.VectorizedDistributionToBEAST;
 
 import java.util.ArrayList;
 import java.util.List;
 
-public class CompoundVectorToBEAST implements ValueToBEAST<Object, BEASTVector> {
+public class CompoundVectorToBEAST implements ValueToBEAST<Object, BEASTInterface> {
 
     @Override
-    public BEASTVector valueToBEAST(Value<Object> value, BEASTContext context) {
+    public BEASTInterface valueToBEAST(Value<Object> value, BEASTContext context) {
 
         if (!(value instanceof CompoundVector)) throw new IllegalArgumentException("Expecting a compound vector value!");
         CompoundVector vectorValue = (CompoundVector)value;
 
+        // one Prior over one parameter, instead of a Prior per scalar
+        if (isIIDScalars(value, context))
+            return createIIDParameter(value);
+
         List<BEASTInterface> beastValues = new ArrayList<>();
         for (int i = 0; i < vectorValue.size(); i++)  {
             Value componentValue = vectorValue.getComponentValue(i);
@@ -36,6 +42,63 @@ public class CompoundVectorToBEAST implements ValueToBEAST<Object, BEASTVector>
         return new BEASTVector(beastValues, value.getId());
     }
 
+    /**
+     * @return  true if the components are Double values drawn from {@link IID},
+     *          or from a {@link VectorizedDistribution} whose components share the distribution,
+     *          and no component is required to be another parameter type.
+     */
+    private boolean isIIDScalars(Value<Object> value, BEASTContext context) {
+        Generator generator = value.getGenerator();
+        if (generator instanceof VectorizedDistribution) {
+            if (!VectorizedDistributionToBEAST.isSharedDistribution(
+                    ((VectorizedDistribution) generator).getComponentDistributions()))
+                return false;
+        } else if (!(generator instanceof IID)) {
+            return false;
+        }
+
+        CompoundVector vectorValue = (CompoundVector) value;
+        for (int i = 0; i < vectorValue.size(); i++) {
+            Value componentValue = vectorValue.getComponentValue(i);
+            if (!(componentValue.value() instanceof Double) || context.getParameterType(componentValue) != null)
+                return false;
+        }
+        return vectorValue.size() > 0;
+    }
+
+    /**
+     * One multi-dimensional parameter within the domain of the shared distribution,
+     * where the element i is keyed by the ID of the component, e.g. x.0,
+     * and accessed by slices, see {@link BEASTContext#getBEASTObject(GraphicalModelNode)}.
+     */
+    private RealParameter createIIDParameter(Value<Object> value) {
+        CompoundVector vectorValue = (CompoundVector) value;
+        double[] values = new double[vectorValue.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (Double) vectorValue.getComponentValue(i).value();
+
+        RealParameter parameter = BEASTContext.createRealParameter(null, values);
+
+        Generator generator = value.getGenerator();
+        Generator distribution = generator instanceof IID ? ((IID<?>) generator).getBaseDistribution() :
+                (Generator) ((VectorizedDistribution) generator).getComponentDistributions().get(0);
+        if (distribution instanceof GenerativeDistribution1D) {
+            Double[] bounds = ((GenerativeDistribution1D<Double>) distribution).getDomainBounds();
+            if (bounds[0] != Double.NEGATIVE_INFINITY) parameter.setInputValue("lower", bounds[0]);
+            if (bounds[1] != Double.POSITIVE_INFINITY) parameter.setInputValue("upper", bounds[1]);
+        }
+
+        if (!value.isAnonymous()) {
+            String[] keys = new String[values.length];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = value.getCanonicalId() + VectorUtils.INDEX_SEPARATOR + i;
+            parameter.setInputValue("keys", String.join(" ", keys));
+        }
+        parameter.initAndValidate();
+        ValueToParameter.setID(parameter, value);
+        return parameter;
+    }
+
     @Override
     public Class getValueClass() {
         return Object.class;
@@ -46,7 +109,7 @@ public class CompoundVectorToBEAST implements ValueToBEAST<Object, BEASTVector>
     }
 
     @Override
-    public Class<BEASTVector> getBEASTClass() {
-        return BEASTVector.class;
+    public Class<BEASTInterface> getBEASTClass() {
+        return BEASTInterface.class;
     }
 }
@@ -6,8 +6,6 @@ import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.ValueToBEAST;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class ContinuousCharacterDataToBEAST implements ValueToBEAST<ContinuousCharacterData, RealParameter> {
@@ -25,10 +23,12 @@ public class ContinuousCharacterDataToBEAST implements ValueToBEAST<ContinuousCh
             builder.append(taxaNames[i]);
         }
 
-        List<Double> allDataRowByRow = new ArrayList<>();
+        Double[][] rows = new Double[taxaNames.length][];
         for (int i = 0; i < taxaNames.length; i++) {
-            allDataRowByRow.addAll(Arrays.asList(continuousCharacterData.getCharacterSequence(taxaNames[i])));
+            rows[i] = continuousCharacterData.getCharacterSequence(taxaNames[i]);
         }
+        // concatenate row by row without copying
+        List<Double> allDataRowByRow = ArrayViews.concat(rows);
 
         RealParameter beastParameter = new RealParameter();
         beastParameter.setInputValue("keys", builder.toString());
@@ -5,8 +5,6 @@ import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.ValueToBEAST;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class DoubleArray2DValueToBEAST implements ValueToBEAST<Double[][], RealParameter> {
@@ -18,10 +16,8 @@ public class DoubleArray2DValueToBEAST implements ValueToBEAST<Double[][], RealP
 
         Double[][] val = value.value();
 
-        List<Double> values = new ArrayList<>(val.length * val[0].length);
-        for (Double[] doubles : val) {
-            values.addAll(Arrays.asList(doubles));
-        }
+        // flatten row by row without copying
+        List<Double> values = ArrayViews.concat(val);
         parameter.setInputValue("value", values);
         parameter.setInputValue("dimension", values.size());
         parameter.setInputValue("minordimension", val[0].length); // TODO check this!
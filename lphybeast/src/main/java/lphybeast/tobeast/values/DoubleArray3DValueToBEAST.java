@@ -5,8 +5,6 @@ import lphy.graphicalModel.Value;
 import lphybeast.BEASTContext;
 import lphybeast.ValueToBEAST;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class DoubleArray3DValueToBEAST implements ValueToBEAST<Double[][][], RealParameter> {
@@ -18,12 +16,8 @@ public class DoubleArray3DValueToBEAST implements ValueToBEAST<Double[][][], Rea
 
         Double[][][] val = value.value();
 
-        List<Double> values = new ArrayList<>(val.length * val[0].length * val[0][0].length);
-        for (Double[][] doubles : val) {
-            for (Double[] doubleArray: doubles) {
-                values.addAll(Arrays.asList(doubleArray));
-            }
-        }
+        // flatten without copying
+        List<Double> values = ArrayViews.flatten(val);
         parameter.setInputValue("value", values);
         parameter.setInputValue("dimension", values.size());
         parameter.setInputValue("minordimension", val[0].length * val[0][0].length); // TODO check this!
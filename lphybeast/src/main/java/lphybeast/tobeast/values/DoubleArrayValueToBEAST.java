@@ -25,6 +25,9 @@ public class DoubleArrayValueToBEAST implements ValueToBEAST<Double[], BEASTInte
 
         if (value.getGenerator() instanceof WeightedDirichlet) {
 
+            if (context.isWeightedDirichletParameter())
+                return createWeightedDirichletParameter(value, context);
+
             Concatenate concatenatedParameters = new Concatenate();
             Double[] values = value.value();
 
@@ -74,13 +77,36 @@ public class DoubleArrayValueToBEAST implements ValueToBEAST<Double[], BEASTInte
         return BEASTInterface.class;
     }
 
+    /**
+     * One multi-dimensional parameter, where the element i is keyed by the ID
+     * of the scalar parameter in the {@link Concatenate} representation, e.g. r.0,
+     * and its proposals touch one state node.
+     */
+    private RealParameter createWeightedDirichletParameter(Value<Double[]> value, BEASTContext context) {
+        RealParameter parameter = (RealParameter) BEASTContext.createParameterWithBound(value, 0.0, null, true);
+
+        if (!value.isAnonymous()) {
+            String[] keys = new String[value.value().length];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = value.getCanonicalId() + VectorUtils.INDEX_SEPARATOR + i;
+            parameter.setInputValue("keys", String.join(" ", keys));
+            parameter.initAndValidate();
+        }
+        context.addStateNode(parameter, value, false);
+
+        addDeltaExchangeOperator(value, List.of(parameter), context);
+
+        return parameter;
+    }
+
     private void addDeltaExchangeOperator(Value<Double[]> value, List<Function> args, BEASTContext context) {
         WeightedDirichlet weightedDirichlet = (WeightedDirichlet) value.getGenerator();
         IntegerParameter weightIntParam = context.getAsIntegerParameter(weightedDirichlet.getWeights());
 
         Operator operator = new DeltaExchangeOperator();
         operator.setInputValue("parameter", args);
-        operator.setInputValue("weight", BEASTContext.getOperatorWeight(args.size() - 1));
+        // the weighted delta exchange moves the total dimension of all args
+        operator.setInputValue("weight", BEASTContext.getOperatorWeight(value.value().length - 1));
         operator.setInputValue("weightvector", weightIntParam);
         operator.setInputValue("delta", 1.0 / value.value().length);
         operator.initAndValidate();
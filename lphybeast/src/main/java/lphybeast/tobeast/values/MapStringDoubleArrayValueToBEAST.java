@@ -26,18 +26,22 @@ public class MapStringDoubleArrayValueToBEAST implements ValueToBEAST<Map<String
 
         int minordimension = 0;
         String[] keys = new String[sortedMap.size()];
-        List<Double> values = new ArrayList<>();
+        Double[][] rows = new Double[sortedMap.size()][];
+        int i = 0;
         for (Map.Entry<String, Double[]> entry : sortedMap.entrySet()) {
-            keys[values.size()] = entry.getKey();
+            keys[i] = entry.getKey();
+            rows[i] = entry.getValue();
             minordimension = entry.getValue().length;
-            values.addAll(Arrays.asList(entry.getValue()));
+            i++;
         }
+        // concatenate rows without copying
+        List<Double> values = ArrayViews.concat(rows);
 
         StringBuilder builder = new StringBuilder();
         builder.append(keys[0]);
-        for (int i = 1; i < keys.length; i++) {
+        for (int j = 1; j < keys.length; j++) {
             builder.append(" ");
-            builder.append(keys[i]);
+            builder.append(keys[j]);
         }
 
         parameter.setInputValue("value", values);
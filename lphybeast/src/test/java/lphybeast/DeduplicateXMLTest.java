@@ -0,0 +1,80 @@
+package lphybeast;
+
+import beast.core.BEASTInterface;
+import beast.core.Input;
+import beast.core.MCMC;
+import beast.math.distributions.Prior;
+import beast.util.XMLParser;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the XML of a multi-partition model, where the equal priors of partitions share the distribution,
+ * is parsed by {@link XMLParser} into the shared instances.
+ */
+public class DeduplicateXMLTest {
+
+    private final int ntaxa = 6;
+    private final String partitions = "data {\n" +
+            "  L = 50;\n" +
+            "  taxa = taxa(names=1:" + ntaxa + ");\n" +
+            "}\n" +
+            "model {\n" +
+            "  Theta ~ LogNormal(meanlog=3.0, sdlog=1.0);\n" +
+            "  psi ~ Coalescent(theta=Theta, taxa=taxa);\n" +
+            "  kappa0 ~ LogNormal(meanlog=1.0, sdlog=0.5);\n" +
+            "  D0 ~ PhyloCTMC(tree=psi, L=L, Q=hky(kappa=kappa0));\n" +
+            "  kappa1 ~ LogNormal(meanlog=1.0, sdlog=0.5);\n" +
+            "  D1 ~ PhyloCTMC(tree=psi, L=L, Q=hky(kappa=kappa1));\n" +
+            "}";
+
+    // the objects with ID reachable through the inputs
+    private static Map<String, BEASTInterface> collect(BEASTInterface beastObject, Map<String, BEASTInterface> objects) {
+        if (beastObject.getID() != null && objects.put(beastObject.getID(), beastObject) == beastObject)
+            return objects;
+        for (Input<?> input : beastObject.listInputs()) {
+            Object value = input.get();
+            if (value instanceof List) {
+                for (Object v : (List<?>) value) {
+                    if (v instanceof BEASTInterface)
+                        collect((BEASTInterface) v, objects);
+                }
+            } else if (value instanceof BEASTInterface) {
+                collect((BEASTInterface) value, objects);
+            }
+        }
+        return objects;
+    }
+
+    @Test
+    public void testSharedPrior() throws Exception {
+        BEASTContext context = new BEASTContext(TestUtils.parseAndSample(partitions));
+        MCMC mcmc = context.createMCMC(1000, "partitions", 0);
+        String xml = context.toXML(mcmc);
+
+        assertFalse("idref='null'", xml.contains("idref=\"null\""));
+
+        Runnable runnable = new XMLParser().parse(xml);
+        assertTrue("MCMC", runnable instanceof MCMC);
+        Map<String, BEASTInterface> objects = collect((MCMC) runnable, new HashMap<>());
+
+        Prior prior0 = (Prior) objects.get("kappa0.prior");
+        Prior prior1 = (Prior) objects.get("kappa1.prior");
+        assertNotNull(prior0);
+        assertNotNull(prior1);
+        // the distribution is written once and referred by its ID
+        assertNotNull(prior0.distInput.get().getID());
+        assertSame(prior0.distInput.get(), prior1.distInput.get());
+        assertNotSame(prior0.m_x.get(), prior1.m_x.get());
+        // but not the prior of Theta with other values
+        Prior thetaPrior = (Prior) objects.get("Theta.prior");
+        assertNotNull(thetaPrior);
+        assertNotSame(prior0.distInput.get(), thetaPrior.distInput.get());
+    }
+
+}
@@ -0,0 +1,108 @@
+package lphybeast;
+
+import lphybeast.spi.LPhyBEASTExtImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the extension index is read as written, and only the new or changed jars are rescanned.
+ */
+public class ExtensionIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String EXT_NAME = LPhyBEASTExtImpl.class.getName();
+
+    // a jar with the service file only
+    private File createServiceJar(String name) throws IOException {
+        File jar = folder.newFile(name);
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            output.putNextEntry(new JarEntry(ExtensionIndex.SERVICE_FILE));
+            output.write((EXT_NAME + "\n").getBytes(StandardCharsets.UTF_8));
+            output.closeEntry();
+        }
+        return jar;
+    }
+
+    // a jar with the class file only, which is found by the byte pre-filter
+    private File createClassJar(String name) throws IOException {
+        File jar = folder.newFile(name);
+        String entryName = EXT_NAME.replace('.', '/') + ".class";
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar.toPath()));
+             InputStream input = LPhyBEASTExtImpl.class.getResourceAsStream("/" + entryName)) {
+            output.putNextEntry(new JarEntry(entryName));
+            copy(input, output);
+            output.closeEntry();
+        }
+        return jar;
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = input.read(buffer)) > 0)
+            output.write(buffer, 0, n);
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        Path indexFile = folder.getRoot().toPath().resolve(ExtensionIndex.INDEX_FILE_NAME);
+        List<File> files = Collections.singletonList(createServiceJar("service.jar"));
+        ExtensionIndex index = ExtensionIndex.loadOrScan(indexFile, files);
+
+        assertTrue(Files.isRegularFile(indexFile));
+        List<ExtensionIndex.ExtEntry> extensions = index.getExtensions();
+        assertEquals(1, extensions.size());
+        assertEquals(EXT_NAME, extensions.get(0).className);
+        assertFalse(extensions.get(0).generatorToBEASTs.isEmpty());
+
+        List<ExtensionIndex.ExtEntry> read = ExtensionIndex.read(indexFile).getExtensions();
+        assertEquals(1, read.size());
+        assertEquals(extensions.get(0).className, read.get(0).className);
+        assertEquals(extensions.get(0).valueToBEASTs, read.get(0).valueToBEASTs);
+        assertEquals(extensions.get(0).generatorToBEASTs, read.get(0).generatorToBEASTs);
+    }
+
+    @Test
+    public void testRescan() throws IOException {
+        Path indexFile = folder.getRoot().toPath().resolve(ExtensionIndex.INDEX_FILE_NAME);
+        File serviceJar = createServiceJar("service.jar");
+        File classJar = createClassJar("class.jar");
+        List<File> files = Arrays.asList(serviceJar, classJar);
+
+        ExtensionIndex index = ExtensionIndex.loadOrScan(indexFile, files);
+        assertEquals(2, index.scanned);
+        // the same class in both jars
+        assertEquals(1, index.getExtensions().size());
+        assertEquals(1, ExtensionIndex.scan(classJar).extensions.size());
+
+        // unchanged
+        index = ExtensionIndex.loadOrScan(indexFile, files);
+        assertEquals(0, index.scanned);
+        assertEquals(EXT_NAME, index.getExtensions().get(0).className);
+
+        // touched
+        assertTrue(classJar.setLastModified(classJar.lastModified() + 2000));
+        index = ExtensionIndex.loadOrScan(indexFile, files);
+        assertEquals(1, index.scanned);
+        assertEquals(1, index.getExtensions().size());
+    }
+
+}
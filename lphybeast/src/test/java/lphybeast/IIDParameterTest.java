@@ -0,0 +1,90 @@
+package lphybeast;
+
+import beast.core.BEASTInterface;
+import beast.core.parameter.RealParameter;
+import beast.core.util.Slice;
+import beast.math.distributions.Prior;
+import beast.util.BEASTVector;
+import lphy.core.LPhyParser;
+import lphy.graphicalModel.Generator;
+import lphy.graphicalModel.Value;
+import lphy.graphicalModel.VectorUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the i.i.d. Double components are converted into one parameter with one Prior,
+ * and the other vectors keep a state node and a Prior per component.
+ */
+public class IIDParameterTest {
+
+    private final String vectors = "model {\n" +
+            "  x ~ LogNormal(meanlog=0.0, sdlog=1.0, replicates=4);\n" +
+            "  y ~ Normal(mean=x[1], sd=1.0);\n" +
+            "  z ~ LogNormal(meanlog=[0.0, 1.0, 2.0], sdlog=1.0);\n" +
+            "  n ~ Poisson(lambda=3.0, replicates=3);\n" +
+            "}";
+
+    private LPhyParser parser;
+    private BEASTContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = TestUtils.parseAndSample(vectors);
+        context = new BEASTContext(parser);
+        context.createBEASTObjects();
+    }
+
+    @Test
+    public void testIIDParameter() {
+        Value<Double[]> x = parser.getModelDictionary().get("x");
+        BEASTInterface beastX = context.getBEASTObject(x);
+        assertTrue("RealParameter", beastX instanceof RealParameter);
+
+        RealParameter parameter = (RealParameter) beastX;
+        assertEquals("x", parameter.getID());
+        assertEquals(4, parameter.getDimension());
+        for (int i = 0; i < 4; i++)
+            assertEquals(x.value()[i], parameter.getValue(i), 0.0);
+        String[] keys = new String[4];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = "x" + VectorUtils.INDEX_SEPARATOR + i;
+        assertEquals(String.join(" ", keys), parameter.keysInput.get());
+        // the domain of LogNormal
+        assertEquals(0.0, parameter.getLower(), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, parameter.getUpper(), 0.0);
+
+        // one Prior over the parameter
+        BEASTInterface prior = context.getBEASTObject(x.getGenerator());
+        assertTrue("Prior", prior instanceof Prior);
+        assertSame(parameter, ((Prior) prior).m_x.get());
+    }
+
+    @Test
+    public void testElementConsumer() {
+        Value<Double> y = parser.getModelDictionary().get("y");
+        Value<?> mean = ((Generator<?>) y.getGenerator()).getParams().get("mean");
+        BEASTInterface beastMean = context.getBEASTObject(mean);
+        assertTrue("Slice", beastMean instanceof Slice);
+
+        Slice slice = (Slice) beastMean;
+        assertSame(context.getBEASTObject(parser.getModelDictionary().get("x")), slice.functionInput.get());
+        assertEquals(1, (int) slice.indexInput.get());
+    }
+
+    @Test
+    public void testOtherVectors() {
+        // each component has its own meanlog
+        BEASTInterface beastZ = context.getBEASTObject(parser.getModelDictionary().get("z"));
+        assertTrue("BEASTVector", beastZ instanceof BEASTVector);
+        assertEquals(3, ((BEASTVector) beastZ).getObjectList().size());
+
+        // not Double
+        BEASTInterface beastN = context.getBEASTObject(parser.getModelDictionary().get("n"));
+        assertTrue("BEASTVector", beastN instanceof BEASTVector);
+        assertEquals(3, ((BEASTVector) beastN).getObjectList().size());
+    }
+
+}
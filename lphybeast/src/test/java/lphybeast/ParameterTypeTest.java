@@ -0,0 +1,40 @@
+package lphybeast;
+
+import beast.core.BEASTInterface;
+import beast.core.parameter.RealParameter;
+import lphy.core.LPhyParser;
+import lphy.graphicalModel.Value;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the parameters created in the type required by their consumers.
+ */
+public class ParameterTypeTest {
+
+    // n is an Integer from Poisson, but Beta requires a RealParameter for alpha
+    private final String integerToReal = "model {\n" +
+            "  n ~ Poisson(lambda=3.0, offset=1);\n" +
+            "  p ~ Beta(alpha=n, beta=2.0);\n" +
+            "}";
+
+    @Test
+    public void testIntegerValueToRealParameter() throws Exception {
+        LPhyParser parser = TestUtils.parseAndSample(integerToReal);
+        BEASTContext context = new BEASTContext(parser);
+        context.createBEASTObjects();
+
+        Value<Integer> n = parser.getModelDictionary().get("n");
+        BEASTInterface beastN = context.getBEASTObject(n);
+        assertTrue("RealParameter", beastN instanceof RealParameter);
+
+        RealParameter parameter = (RealParameter) beastN;
+        assertEquals("n", parameter.getID());
+        assertEquals(n.value().doubleValue(), parameter.getValue(), 0.0);
+        // the domain bounds of Poisson are kept
+        assertTrue("lower bound", parameter.getLower() >= 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, parameter.getUpper(), 0.0);
+    }
+
+}
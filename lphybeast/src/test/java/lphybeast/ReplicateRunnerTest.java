@@ -0,0 +1,79 @@
+package lphybeast;
+
+import beast.util.Randomizer;
+import lphy.core.LPhyParser;
+import lphy.evolution.tree.TimeTree;
+import lphy.graphicalModel.Value;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the replicates are reproducible from the master seed,
+ * where the simulations are the same given any number of workers.
+ */
+public class ReplicateRunnerTest {
+
+    private final String simpleCoal = "data {\n" +
+            "  taxa = taxa(names=1:10);\n" +
+            "}\n" +
+            "model {\n" +
+            "  Θ ~ LogNormal(meanlog=3.0, sdlog=1.0);\n" +
+            "  ψ ~ Coalescent(theta=Θ, taxa=taxa);\n" +
+            "}";
+
+    private final int nReplicates = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameMasterSeed() throws Exception {
+        double[][] first = runReplicates(777, 1, folder.newFolder("first").toPath());
+        double[][] second = runReplicates(777, 1, folder.newFolder("second").toPath());
+
+        for (int i = 0; i < nReplicates; i++)
+            assertArrayEquals("Replicate " + i, first[i], second[i], 0.0);
+        // replicates have different seeds
+        assertFalse(Arrays.equals(first[0], first[1]));
+    }
+
+    @Test
+    public void testWorkers() throws Exception {
+        double[][] one = runReplicates(777, 1, folder.newFolder("one").toPath());
+        double[][] two = runReplicates(777, 2, folder.newFolder("two").toPath());
+
+        for (int i = 0; i < nReplicates; i++)
+            assertArrayEquals("Replicate " + i, one[i], two[i], 0.0);
+    }
+
+    // the simulated theta, root height and the next BEAST random number of every replicate
+    private double[][] runReplicates(long masterSeed, int workers, Path parentDir) {
+        double[][] results = new double[nReplicates][];
+        ReplicateRunner runner = new ReplicateRunner(nReplicates, workers, 0, masterSeed);
+        assertEquals(workers, runner.getWorkerCount());
+        int failed = runner.run(parentDir, "simpleCoal", (i, seed, outDir) -> {
+            assertNotNull("Seed of replicate " + i, seed);
+            results[i] = ReplicateRunner.simulate(seed, () -> {
+                LPhyParser parser;
+                try {
+                    parser = TestUtils.parseAndSample(simpleCoal);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                Value<Double> theta = parser.getModelDictionary().get("Θ");
+                Value<TimeTree> tree = parser.getModelDictionary().get("ψ");
+                return new double[]{theta.value(), tree.value().getRoot().getAge(), Randomizer.nextDouble()};
+            });
+        });
+        assertEquals(0, failed);
+        return results;
+    }
+
+}
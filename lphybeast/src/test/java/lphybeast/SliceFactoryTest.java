@@ -0,0 +1,92 @@
+package lphybeast;
+
+import beast.core.Function;
+import beast.core.parameter.RealParameter;
+import beast.core.util.Slice;
+import feast.function.Concatenate;
+import lphy.graphicalModel.VectorUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that merging the adjacent single-element slices keeps the values of the {@link Concatenate}.
+ */
+public class SliceFactoryTest {
+
+    @Test
+    public void testCoalesceSlices() {
+        // no ID, so the ranged slice is named after the Concatenate
+        RealParameter x = new RealParameter(new Double[]{0.1, 0.2, 0.3, 0.4, 0.5, 0.6});
+        RealParameter y = new RealParameter(new Double[]{1.0, 2.0});
+        y.setID("y");
+
+        SliceFactory sliceFactory = new SliceFactory();
+        List<Function> functions = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            functions.add(sliceFactory.getSlice(x, i, "x_" + i));
+        functions.add(y);
+        functions.add(sliceFactory.getSlice(x, 4, "x_4"));
+        functions.add(sliceFactory.getSlice(x, 5, "x_5"));
+        functions.add(sliceFactory.getSlice(y, 0, "y_0"));
+
+        Concatenate concatenate = new Concatenate();
+        concatenate.setInputValue("arg", functions);
+        concatenate.initAndValidate();
+        concatenate.setID("c");
+
+        int dimension = concatenate.getDimension();
+        double[] values = new double[dimension];
+        for (int i = 0; i < dimension; i++)
+            values[i] = concatenate.getArrayValue(i);
+
+        List<Slice> unused = sliceFactory.coalesceSlices(concatenate);
+
+        assertEquals(5, unused.size());
+        List<Function> coalesced = concatenate.functionsInput.get();
+        assertEquals(4, coalesced.size());
+        assertEquals("c" + VectorUtils.INDEX_SEPARATOR + "0-2", ((Slice) coalesced.get(0)).getID());
+        assertSame(y, coalesced.get(1));
+        assertEquals("c" + VectorUtils.INDEX_SEPARATOR + "4-5", ((Slice) coalesced.get(2)).getID());
+        // a single slice is kept
+        assertEquals("y_0", ((Slice) coalesced.get(3)).getID());
+
+        assertEquals(dimension, concatenate.getDimension());
+        for (int i = 0; i < dimension; i++)
+            assertEquals(values[i], concatenate.getArrayValue(i), 0.0);
+    }
+
+    @Test
+    public void testWithoutID() {
+        RealParameter x = new RealParameter(new Double[]{0.1, 0.2, 0.3});
+        SliceFactory sliceFactory = new SliceFactory();
+        List<Function> functions = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            functions.add(sliceFactory.getSlice(x, i, "x_" + i));
+
+        Concatenate concatenate = new Concatenate();
+        concatenate.setInputValue("arg", functions);
+        concatenate.initAndValidate();
+
+        assertEquals(3, sliceFactory.coalesceSlices(concatenate).size());
+        List<Function> coalesced = concatenate.functionsInput.get();
+        assertEquals(1, coalesced.size());
+        assertEquals("slice0" + VectorUtils.INDEX_SEPARATOR + "0-2", ((Slice) coalesced.get(0)).getID());
+    }
+
+    @Test
+    public void testGetSlice() {
+        RealParameter x = new RealParameter(new Double[]{0.1, 0.2});
+        x.setID("x");
+        SliceFactory sliceFactory = new SliceFactory();
+        Slice slice = sliceFactory.getSlice(x, 1, "x_1");
+        // the first ID is kept, and a warning is logged
+        assertSame(slice, sliceFactory.getSlice(x, 1, "x1"));
+        assertEquals("x_1", slice.getID());
+        assertNotSame(slice, sliceFactory.getSlice(x, 0, "x_0"));
+    }
+
+}
@@ -1,5 +1,16 @@
 package lphybeast;
 
+import lphy.core.GraphicalLPhyParser;
+import lphy.core.LPhyParser;
+import lphy.core.Sampler;
+import lphy.graphicalModel.RandomValueLogger;
+import lphy.parser.REPL;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+
 import static org.junit.Assert.*;
 
 /**
@@ -18,4 +29,15 @@ public class TestUtils {
         assertEquals(ntaxa,  occ);
     }
 
+    /**
+     * @return  the parser of the script after sampling once, without logging true values.
+     */
+    public static LPhyParser parseAndSample(String script) throws IOException {
+        LPhyParser parser = new REPL();
+        parser.source(new BufferedReader(new StringReader(script)));
+        Sampler sampler = new Sampler(new GraphicalLPhyParser(parser));
+        sampler.sample(1, new ArrayList<RandomValueLogger>());
+        return parser;
+    }
+
 }
@@ -0,0 +1,189 @@
+package lphybeast.tobeast;
+
+import beast.core.Function;
+import beast.core.parameter.RealParameter;
+import beast.math.distributions.Normal;
+import beast.math.distributions.ParametricDistribution;
+import beast.math.distributions.Prior;
+import beast.util.Randomizer;
+import org.apache.commons.math.distribution.ContinuousDistribution;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that {@link BatchPrior} gives the same log density as the priors it replaces,
+ * after changes, store and restore.
+ */
+public class BatchPriorTest {
+
+    private final int n = BatchPrior.MIN_BATCH_SIZE + 2;
+    private List<RealParameter> parameters;
+    private List<Prior> priors;
+
+    @Before
+    public void setUp() {
+        parameters = new ArrayList<>();
+        priors = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            RealParameter x = new RealParameter(new Double[]{0.1 * i});
+            x.setID("x" + i);
+            Normal normal = new Normal();
+            normal.initByName("mean", new RealParameter("0.0"), "sigma", new RealParameter("" + (1.0 + i)));
+            Prior prior = new Prior();
+            prior.initByName("x", x, "distr", normal);
+            parameters.add(x);
+            priors.add(prior);
+        }
+    }
+
+    private double sumLogP() {
+        double logP = 0;
+        for (Prior prior : priors)
+            logP += prior.calculateLogP();
+        return logP;
+    }
+
+    @Test
+    public void testLogP() {
+        BatchPrior batchPrior = BatchPrior.createBatchPrior(priors);
+        assertEquals(sumLogP(), batchPrior.calculateLogP(), 1e-10);
+    }
+
+    @Test
+    public void testStoreRestore() {
+        BatchPrior batchPrior = BatchPrior.createBatchPrior(priors);
+        double logP = batchPrior.calculateLogP();
+
+        batchPrior.store();
+        parameters.get(3).setValue(0, 2.5);
+        parameters.get(7).setValue(0, -1.5);
+        assertEquals(sumLogP(), batchPrior.calculateLogP(), 1e-10);
+        assertNotEquals(logP, batchPrior.getCurrentLogP(), 1e-10);
+
+        // reject
+        parameters.get(3).setValue(0, 0.3);
+        parameters.get(7).setValue(0, 0.7);
+        batchPrior.restore();
+        for (RealParameter x : parameters)
+            x.setEverythingDirty(false);
+        assertEquals(logP, batchPrior.calculateLogP(), 1e-10);
+
+        // accept, then only the last change is restored
+        batchPrior.store();
+        parameters.get(5).setValue(0, 4.0);
+        double accepted = batchPrior.calculateLogP();
+        batchPrior.store();
+        parameters.get(5).setValue(0, 0.5);
+        parameters.get(9).setValue(0, 8.0);
+        assertEquals(sumLogP(), batchPrior.calculateLogP(), 1e-10);
+        parameters.get(5).setValue(0, 4.0);
+        parameters.get(9).setValue(0, 0.9);
+        batchPrior.restore();
+        for (RealParameter x : parameters)
+            x.setEverythingDirty(false);
+        assertEquals(accepted, batchPrior.calculateLogP(), 1e-10);
+        assertEquals(sumLogP(), accepted, 1e-10);
+    }
+
+    @Test
+    public void testBounds() {
+        parameters.get(2).setBounds(0.0, 1.0);
+        BatchPrior batchPrior = BatchPrior.createBatchPrior(priors);
+        batchPrior.store();
+        parameters.get(2).setValue(0, 1.5);
+        assertEquals(Double.NEGATIVE_INFINITY, batchPrior.calculateLogP(), 0.0);
+    }
+
+    @Test
+    public void testRunningTotal() {
+        parameters.get(2).setBounds(0.0, 1.0);
+        BatchPrior batchPrior = BatchPrior.createBatchPrior(priors);
+        for (RealParameter x : parameters)
+            x.setEverythingDirty(false);
+        assertFalse(batchPrior.requiresRecalculation());
+        double logP = batchPrior.calculateLogP();
+
+        // the dirty priors found by requiresRecalculation are recomputed
+        batchPrior.store();
+        parameters.get(4).setValue(0, 1.2);
+        assertTrue(batchPrior.requiresRecalculation());
+        assertEquals(sumLogP(), batchPrior.calculateLogP(), 1e-10);
+
+        // out of bounds, then back
+        batchPrior.store();
+        for (RealParameter x : parameters)
+            x.setEverythingDirty(false);
+        parameters.get(2).setValue(0, 1.5);
+        assertTrue(batchPrior.requiresRecalculation());
+        assertEquals(Double.NEGATIVE_INFINITY, batchPrior.calculateLogP(), 0.0);
+        batchPrior.store();
+        for (RealParameter x : parameters)
+            x.setEverythingDirty(false);
+        parameters.get(2).setValue(0, 0.2);
+        assertTrue(batchPrior.requiresRecalculation());
+        double accepted = batchPrior.calculateLogP();
+        assertEquals(sumLogP(), accepted, 1e-10);
+        assertNotEquals(logP, accepted, 1e-10);
+
+        // reject
+        batchPrior.store();
+        parameters.get(8).setValue(0, 3.0);
+        assertEquals(sumLogP(), batchPrior.calculateLogP(), 1e-10);
+        parameters.get(8).setValue(0, 0.8);
+        batchPrior.restore();
+        assertEquals(accepted, batchPrior.getCurrentLogP(), 1e-10);
+    }
+
+    @Test
+    public void testPositiveInfinity() {
+        RealParameter x = new RealParameter("0.0");
+        Prior prior = new Prior();
+        prior.initByName("x", x, "distr", new InfiniteDensity());
+        priors.add(prior);
+
+        BatchPrior batchPrior = BatchPrior.createBatchPrior(priors);
+        assertEquals(Double.NEGATIVE_INFINITY, prior.calculateLogP(), 0.0);
+        assertEquals(Double.NEGATIVE_INFINITY, batchPrior.calculateLogP(), 0.0);
+    }
+
+    @Test
+    public void testSample() {
+        Randomizer.setSeed(7);
+        for (int i = 0; i < n; i++)
+            parameters.get(i).setBounds(-100.0, 100.0);
+        BatchPrior batchPrior = BatchPrior.createBatchPrior(priors);
+        batchPrior.sample(null, null);
+
+        // every parameter is sampled from its own distribution
+        boolean changed = false;
+        for (int i = 0; i < n; i++) {
+            double value = parameters.get(i).getValue();
+            assertTrue(Math.abs(value) <= 100.0);
+            changed = changed || value != 0.1 * i;
+        }
+        assertTrue(changed);
+        assertEquals(sumLogP(), batchPrior.calculateLogP(), 1e-10);
+    }
+
+    // a density which is infinite everywhere
+    public static class InfiniteDensity extends ParametricDistribution {
+        @Override
+        public void initAndValidate() {
+        }
+
+        @Override
+        public ContinuousDistribution getDistribution() {
+            return null;
+        }
+
+        @Override
+        public double calcLogP(Function x) {
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+}
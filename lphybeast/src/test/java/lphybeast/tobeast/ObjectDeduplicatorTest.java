@@ -0,0 +1,98 @@
+package lphybeast.tobeast;
+
+import beast.core.BEASTInterface;
+import beast.core.StateNode;
+import beast.core.parameter.RealParameter;
+import beast.math.distributions.Normal;
+import beast.math.distributions.Prior;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that only the equal objects without ID are merged, and the state is kept.
+ */
+public class ObjectDeduplicatorTest {
+
+    private Prior createPrior(String xId, RealParameter mean, RealParameter sigma) {
+        RealParameter x = new RealParameter("1.0");
+        x.setID(xId);
+        Normal normal = new Normal();
+        normal.initByName("mean", mean, "sigma", sigma);
+        Prior prior = new Prior();
+        prior.initByName("x", x, "distr", normal);
+        return prior;
+    }
+
+    private List<StateNode> getState(Prior... priors) {
+        StateNode[] state = new StateNode[priors.length];
+        for (int i = 0; i < priors.length; i++)
+            state[i] = (StateNode) priors[i].m_x.get();
+        return Arrays.asList(state);
+    }
+
+    @Test
+    public void testMergeWithoutID() {
+        Prior prior1 = createPrior("x1", new RealParameter("0.0"), new RealParameter("1.0"));
+        Prior prior2 = createPrior("x2", new RealParameter("0.0"), new RealParameter("1.0"));
+
+        Map<BEASTInterface, BEASTInterface> duplicates =
+                new ObjectDeduplicator(getState(prior1, prior2)).deduplicate(Arrays.asList(prior1, prior2));
+
+        // mean, sigma and the normal
+        assertEquals(3, duplicates.size());
+        assertSame(prior1.distInput.get(), prior2.distInput.get());
+        assertTrue(prior1.distInput.get().getOutputs().contains(prior2));
+        // the state nodes with equal values are not merged
+        assertNotSame(prior1.m_x.get(), prior2.m_x.get());
+
+        // the shared instances are named in the order of traversal
+        Normal normal = (Normal) prior1.distInput.get();
+        assertEquals("Normal1", normal.getID());
+        assertEquals("RealParameter1", normal.meanInput.get().getID());
+        assertEquals("RealParameter2", normal.sigmaInput.get().getID());
+    }
+
+    @Test
+    public void testSkipUsedID() {
+        RealParameter sigma = new RealParameter("2.0");
+        sigma.setID("RealParameter1");
+        Prior prior1 = createPrior("x1", new RealParameter("0.0"), sigma);
+        Prior prior2 = createPrior("x2", new RealParameter("0.0"), new RealParameter("1.0"));
+        Prior prior3 = createPrior("x3", new RealParameter("0.0"), new RealParameter("1.0"));
+
+        new ObjectDeduplicator(getState(prior1, prior2, prior3)).deduplicate(Arrays.asList(prior1, prior2, prior3));
+
+        Normal normal1 = (Normal) prior1.distInput.get();
+        Normal normal2 = (Normal) prior2.distInput.get();
+        assertSame(normal2, prior3.distInput.get());
+        assertEquals("Normal1", normal2.getID());
+        assertEquals("RealParameter2", normal1.meanInput.get().getID());
+        assertSame(normal1.meanInput.get(), normal2.meanInput.get());
+        assertEquals("RealParameter3", normal2.sigmaInput.get().getID());
+        assertEquals("RealParameter1", sigma.getID());
+    }
+
+    @Test
+    public void testKeepDifferentIDs() {
+        RealParameter mean1 = new RealParameter("0.0");
+        mean1.setID("mean1");
+        RealParameter mean2 = new RealParameter("0.0");
+        mean2.setID("mean2");
+        Prior prior1 = createPrior("x1", mean1, new RealParameter("1.0"));
+        Prior prior2 = createPrior("x2", mean2, new RealParameter("1.0"));
+
+        Map<BEASTInterface, BEASTInterface> duplicates =
+                new ObjectDeduplicator(getState(prior1, prior2)).deduplicate(Arrays.asList(prior1, prior2));
+
+        // only sigma
+        assertEquals(1, duplicates.size());
+        assertNotSame(prior1.distInput.get(), prior2.distInput.get());
+        assertSame(mean2, ((Normal) prior2.distInput.get()).meanInput.get());
+    }
+
+}
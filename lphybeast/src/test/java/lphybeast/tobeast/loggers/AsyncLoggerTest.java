@@ -0,0 +1,122 @@
+package lphybeast.tobeast.loggers;
+
+import beast.core.Logger;
+import beast.core.parameter.RealParameter;
+import beast.util.TreeParser;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that {@link AsyncLogger} writes the same bytes as {@link Logger},
+ * and the MCMC does not wait forever if the writes fail.
+ */
+public class AsyncLoggerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final int n = 200;
+    private Logger.LogFileMode fileMode;
+
+    @Before
+    public void setUp() {
+        fileMode = Logger.FILE_MODE;
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+    }
+
+    @After
+    public void tearDown() {
+        Logger.FILE_MODE = fileMode;
+    }
+
+    private byte[] logTrace(Logger logger, File file) throws IOException {
+        RealParameter x = new RealParameter(new Double[]{0.0, 1.0});
+        x.setID("x");
+        RealParameter y = new RealParameter("2.0");
+        y.setID("y");
+        logger.initByName("fileName", file.getPath(), "logEvery", 2, "log", x, "log", y);
+
+        logger.init();
+        for (int i = 0; i <= n; i++) {
+            x.setValue(0, 0.5 * i);
+            y.setValue(0, 1.0 / (i + 1));
+            logger.log(i);
+        }
+        logger.close();
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private byte[] logTrees(Logger logger, File file) throws IOException {
+        TreeParser tree = new TreeParser();
+        tree.initByName("newick", "((A:1.0,B:1.0):1.0,C:2.0);", "IsLabelledNewick", true,
+                "adjustTipHeights", false);
+        tree.setID("tree");
+        logger.initByName("fileName", file.getPath(), "logEvery", 1, "log", tree);
+
+        logger.init();
+        for (int i = 0; i <= n; i++) {
+            tree.getRoot().setHeight(2.0 + 0.01 * i);
+            logger.log(i);
+        }
+        logger.close();
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    public void testTrace() throws IOException {
+        byte[] expected = logTrace(new Logger(), folder.newFile("sync.log"));
+        byte[] actual = logTrace(new AsyncLogger(), folder.newFile("async.log"));
+        assertTrue(expected.length > 0);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testTrees() throws IOException {
+        byte[] expected = logTrees(new Logger(), folder.newFile("sync.trees"));
+        byte[] actual = logTrees(new AsyncLogger(), folder.newFile("async.trees"));
+        assertTrue(expected.length > 0);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testSmallBuffer() throws IOException {
+        byte[] expected = logTrees(new Logger(), folder.newFile("sync.trees"));
+        AsyncLogger asyncLogger = new AsyncLogger();
+        // smaller than one sample
+        asyncLogger.setInputValue("bufferSize", 16);
+        byte[] actual = logTrees(asyncLogger, folder.newFile("async.trees"));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test(timeout = 30000)
+    public void testWriteError() throws IOException {
+        // every write fails with no space left on device
+        File full = new File("/dev/full");
+        Assume.assumeTrue(full.exists() && full.canWrite());
+
+        AsyncLogger asyncLogger = new AsyncLogger();
+        asyncLogger.setInputValue("bufferSize", 64);
+        asyncLogger.setInputValue("writeBufferSize", 1);
+        RealParameter x = new RealParameter("0.0");
+        x.setID("x");
+        asyncLogger.initByName("fileName", full.getPath(), "logEvery", 1, "log", x);
+
+        asyncLogger.init();
+        for (int i = 0; i <= n; i++)
+            asyncLogger.log(i);
+        // returns after the writer stops
+        asyncLogger.close();
+        assertNotNull(asyncLogger.getWriteError());
+    }
+
+}
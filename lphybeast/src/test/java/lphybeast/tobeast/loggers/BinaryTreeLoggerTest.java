@@ -0,0 +1,145 @@
+package lphybeast.tobeast.loggers;
+
+import beast.core.Logger;
+import beast.evolution.tree.Node;
+import beast.util.TreeParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Log a tree whose topology and leaf heights change, convert the binary log to NEXUS,
+ * and check every tree parsed by {@link TreeParser} has the same clades and heights as the logged tree.
+ */
+public class BinaryTreeLoggerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Logger.LogFileMode fileMode;
+
+    @Before
+    public void setUp() {
+        fileMode = Logger.FILE_MODE;
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+    }
+
+    @After
+    public void tearDown() {
+        Logger.FILE_MODE = fileMode;
+    }
+
+    // the heights of clades, keyed by the sorted taxa
+    private static Map<String, Double> getClades(Node node, Map<String, Double> clades, Map<String, String> labels) {
+        List<String> taxa = new ArrayList<>();
+        collectTaxa(node, taxa, labels);
+        Collections.sort(taxa);
+        clades.put(String.join(",", taxa), node.getHeight());
+        for (Node child : node.getChildren())
+            getClades(child, clades, labels);
+        return clades;
+    }
+
+    private static void collectTaxa(Node node, List<String> taxa, Map<String, String> labels) {
+        if (node.isLeaf())
+            taxa.add(labels == null ? node.getID() : labels.get(node.getID()));
+        for (Node child : node.getChildren())
+            collectTaxa(child, taxa, labels);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        TreeParser tree = new TreeParser();
+        tree.initByName("newick", "((A:1.0,B:1.0):1.0,(C:0.5,D:0.5):1.5);", "IsLabelledNewick", true,
+                "adjustTipHeights", false);
+        tree.setID("tree");
+
+        Path btrees = folder.getRoot().toPath().resolve("test.btrees");
+        BinaryTreeLogger logger = new BinaryTreeLogger();
+        logger.initByName("fileName", btrees.toString(), "logEvery", 1, "log", tree);
+
+        // the translate numbers are the leaf numbers + 1
+        Map<String, String> labels = new HashMap<>();
+        for (int i = 0; i < tree.getLeafNodeCount(); i++)
+            labels.put(Integer.toString(i + 1), tree.getNode(i).getID());
+
+        List<Map<String, Double>> expected = new ArrayList<>();
+        logger.init();
+        for (int i = 0; i < 6; i++) {
+            Node root = tree.getRoot();
+            if (i == 2 || i == 4) {
+                // swap a child of each clade under the root
+                Node left = root.getChild(0);
+                Node right = root.getChild(1);
+                Node a = left.getChild(1);
+                Node b = right.getChild(1);
+                left.removeChild(a);
+                right.removeChild(b);
+                left.addChild(b);
+                right.addChild(a);
+            }
+            if (i == 3) {
+                // a tip date
+                Node leaf = tree.getNode(0);
+                leaf.setHeight(0.25 * Math.min(leaf.getParent().getHeight(), 1.0));
+            }
+            root.setHeight(2.0 + 0.1 * i);
+            expected.add(getClades(tree.getRoot(), new LinkedHashMap<>(), null));
+            logger.log(i);
+        }
+        logger.close();
+
+        Path nexus = folder.getRoot().toPath().resolve("test.trees");
+        assertEquals(expected.size(), BinaryTreeToNexus.convert(btrees, nexus));
+
+        List<String> newicks = new ArrayList<>();
+        for (String line : Files.readAllLines(nexus)) {
+            if (line.startsWith("tree STATE_"))
+                newicks.add(line.substring(line.indexOf("=") + 1, line.lastIndexOf(";")).trim());
+        }
+        assertEquals(expected.size(), newicks.size());
+
+        for (int i = 0; i < newicks.size(); i++) {
+            TreeParser parsed = new TreeParser();
+            parsed.initByName("newick", newicks.get(i), "IsLabelledNewick", true, "adjustTipHeights", false);
+            Map<String, Double> actual = getClades(parsed.getRoot(), new LinkedHashMap<>(), labels);
+
+            assertEquals("tree " + i, expected.get(i).keySet(), actual.keySet());
+            for (Map.Entry<String, Double> clade : expected.get(i).entrySet())
+                assertEquals("tree " + i + " clade " + clade.getKey(), clade.getValue(), actual.get(clade.getKey()), 1e-9);
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        TreeParser tree = new TreeParser();
+        tree.initByName("newick", "((A:1.0,B:1.0):1.0,C:2.0);", "IsLabelledNewick", true,
+                "adjustTipHeights", false);
+        tree.setID("tree");
+
+        File btrees = folder.newFile("resume.btrees");
+        BinaryTreeLogger logger = new BinaryTreeLogger();
+        logger.initByName("fileName", btrees.getPath(), "logEvery", 1, "log", tree, "mode", "tree");
+
+        Logger.FILE_MODE = Logger.LogFileMode.resume;
+        logger.init();
+        logger.log(0);
+        logger.close();
+
+        File resumed = new File(BinaryTreeLogger.getResumeFileName(btrees.getPath()));
+        assertEquals("resume.resume.trees", resumed.getName());
+        assertTrue(resumed.exists());
+        assertTrue(new String(Files.readAllBytes(resumed.toPath())).contains("tree STATE_0"));
+    }
+
+}
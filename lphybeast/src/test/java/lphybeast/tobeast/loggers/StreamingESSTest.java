@@ -0,0 +1,77 @@
+package lphybeast.tobeast.loggers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check the streaming ESS against the known ESS of i.i.d. and AR(1) samples,
+ * where ESS = n (1 - rho) / (1 + rho) for AR(1) with the coefficient rho.
+ * The batch means estimate is noisy in a single chain,
+ * so the ratio n / ESS, which is unbiased, is averaged over chains.
+ */
+public class StreamingESSTest {
+
+    // 20 batches of 1024 samples, so that 10% burnin is 2 whole batches
+    private final int n = 20480;
+    private final int nChains = 100;
+
+    @Test
+    public void testIID() {
+        assertEquals(1.0, getMeanInverseESS(0.0, 1), 0.25);
+    }
+
+    @Test
+    public void testAR1() {
+        assertEquals((1 + 0.5) / (1 - 0.5), getMeanInverseESS(0.5, 2), 0.2 * 3);
+        assertEquals((1 + 0.9) / (1 - 0.9), getMeanInverseESS(0.9, 3), 0.2 * 19);
+    }
+
+    @Test
+    public void testAdaptiveBurnin() {
+        Random random = new Random(4);
+        StreamingESS ess = new StreamingESS(0.1);
+        // the transient of the first 5% is discarded
+        for (int i = 0; i < n; i++)
+            ess.add(i < n / 20 ? 100 + random.nextGaussian() : random.nextGaussian());
+
+        assertEquals(n, ess.getSampleCount());
+        assertEquals(n - n / 10, ess.getESSSampleCount());
+        assertTrue("ESS " + ess.getESS(), ess.getESS() > 0.5 * ess.getESSSampleCount());
+
+        StreamingESS noBurnin = new StreamingESS(0.0);
+        random = new Random(4);
+        for (int i = 0; i < n; i++)
+            noBurnin.add(i < n / 20 ? 100 + random.nextGaussian() : random.nextGaussian());
+        assertTrue("ESS " + noBurnin.getESS(), noBurnin.getESS() < 0.1 * n);
+    }
+
+    @Test
+    public void testNotEnoughSamples() {
+        StreamingESS ess = new StreamingESS();
+        for (int i = 0; i < StreamingESS.MIN_BATCH_SIZE; i++)
+            ess.add(i);
+        assertEquals(0, ess.getESS(), 0.0);
+    }
+
+    // the mean of (samples after burnin) / ESS over chains
+    private double getMeanInverseESS(double rho, long seed) {
+        Random random = new Random(seed);
+        double sum = 0;
+        for (int c = 0; c < nChains; c++) {
+            StreamingESS ess = new StreamingESS();
+            // start from the stationary distribution
+            double x = random.nextGaussian() / Math.sqrt(1 - rho * rho);
+            for (int i = 0; i < n; i++) {
+                ess.add(x);
+                x = rho * x + random.nextGaussian();
+            }
+            assertEquals(n - n / 10, ess.getESSSampleCount());
+            sum += ess.getESSSampleCount() / ess.getESS();
+        }
+        return sum / nChains;
+    }
+
+}
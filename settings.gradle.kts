@@ -3,6 +3,7 @@ rootProject.name = "LPhyBEAST"
 
 include("lphybeast")
 include("mascot")
+include("benchmark")
 
 // https://docs.gradle.org/current/userguide/build_cache.html
 // https://docs.gradle.org/current/userguide/build_cache_use_cases.html